@@ -8,8 +8,17 @@ call    .test_color
 hlt
 
 .test_color:
-    vms     ; switch to VRAM addressing mode
-    ; TODO
+    ; one colour per row (y % 64), a row is a single span fill
+    ldi     r0, 0   ; first pixel of the row
+    ldi     r1, 0   ; y
+    ldi     r3, 240 ; pixels per row
+    ldi     r4, 57600 ; 240 * 240, the end of the screen
+.test_color_row:
+    pfill   r0, r1, r3 ; pixel colours are the low 6 bits of r1
+    addi    r1, 1
+    add     r0, r3
+    cmp     r0, r4
+    jne     .test_color_row
     ret
 
 ; set_pixel (subroutine) - set a pixel on the screen
@@ -17,32 +26,17 @@ hlt
 ; r1 = Y-coordinate
 ; r2 = color (6-bit wide)
 .set_pixel
-    vms     ; switch to VRAM addressing mode
-    muli    r1, 240 ; y = (y * height)
+    muli    r1, 240 ; y = (y * width)
     add     r1, r0 ; y += x
-    ; normalize color
-    andi    r2, 0b111111 ; 6 bit for color - r1 & 0b11_11_11
-    ; set pixel  (r1 now has the VRAM position, r2 has color)
-    ; to set pixel, it isnt easy, because each byte has 8 bits, but we need
-    ; to set 6 and spare 2 for later use
-    wms     ; switch back to CPU addressing mode  
+    ; pixels are packed 4 per 3 bytes in VRAM, pset does the shifting and masking
+    pset    r1, r2
     ret
 
-; r2 = color data (11_11_11_00)
+; r2 = color data (6-bit wide)
 ; r1 = index
 .arr_set
-    muli    r1, 6
-    mov     r3, r1 ; offset
-    mov     r4, r1 ; byte_index
-    mod     r3, 8  ; 6*i % 8
-    div     r4, 8  ; 6*i / 8
-    ; r3 = offset ; r4 = byte_index
-    ; r5 = the current color data
-    mov     r5, r2 ; r5 = r2
-    shr     r5, r3 ; r5 >> byte_index
-    lmb     r6, r4 ; r6 = *r4
-    or      r6, r5 ; merge r6 with the calculated shit??
-
+    pset    r1, r2
+    ret
 
 .bitmask_gen
     ldi     r7, 1
@@ -0,0 +1,76 @@
+package cpu.test.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code ShitwareAssembler.assemble} throughput (including the reset of its global state), score in source
+ * lines per millisecond:
+ * <ul>
+ * <li>small: asm/testlungtung.asm as is</li>
+ * <li>large: a generated source of {@value #LARGE_FUNCTIONS} functions (labels, calls, loops, branches) and a data section</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+	static final int LARGE_FUNCTIONS = 500;
+
+	@Param({ "small", "large" })
+	public String size;
+
+	private String[] lines;
+
+	@Setup
+	public void setup() {
+		lines = size.equals("small") ? Programs.source("testlungtung") : generate(LARGE_FUNCTIONS);
+	}
+
+	// every function loops over a counter and calls the next one, ~13 lines per function
+	static String[] generate(int functions) {
+		List<String> lines = new ArrayList<>();
+		lines.add("@data");
+		for (int f = 0; f < functions; f++) {
+			lines.add("value_" + f + " .hword " + (f * 7 & 0xFFFF));
+		}
+		lines.add("@text");
+		lines.add("jmp .f0");
+		for (int f = 0; f < functions; f++) {
+			lines.add(".f" + f + ":");
+			lines.add("    ldi     r1, " + (f % 10 + 1) + " ; counter");
+			lines.add("    ldi     r2, 0");
+			lines.add(".f" + f + "_loop:");
+			lines.add("    addi    r0, " + f);
+			lines.add("    xor     r3, r0");
+			lines.add("    subi    r1, 1");
+			lines.add("    cmp     r1, r2");
+			lines.add("    jne     .f" + f + "_loop");
+			lines.add(f + 1 < functions ? "    call    .f" + (f + 1) : "    nop");
+			lines.add("    ret");
+		}
+		lines.add("hlt");
+		return lines.toArray(new String[0]);
+	}
+
+	@Benchmark
+	public byte[] assemble() {
+		return Programs.assemble(size + ".asm", lines);
+	}
+}
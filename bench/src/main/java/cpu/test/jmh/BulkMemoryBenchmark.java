@@ -0,0 +1,113 @@
+package cpu.test.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.test.Machine;
+
+/**
+ * The bulk memory instructions against the loops they replace, on {@value #BYTES} bytes:
+ * <ul>
+ * <li>fill: MEMSET over VRAM vs an SMB / ADDI / CMP / JNE loop</li>
+ * <li>copy: MEMCPY in RAM vs an LMB / SMB loop</li>
+ * <li>cross: MEMCPYX from RAM to VRAM vs an LMB / SMB loop switching banks (WMS / VMS)</li>
+ * </ul>
+ * The score is bytes per microsecond (= MB/s)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkMemoryBenchmark {
+	static final int BYTES = 4096;
+
+	@Param({ "false", "true" })
+	public boolean jit;
+
+	private Machine fillLoop, fill, copyLoop, copy, crossLoop, cross;
+
+	@Setup
+	public void setup() {
+		// r1 = destination, r2 = source / value, r3 = end of the source (loops) or length
+		fillLoop = Programs.machine(Programs.assemble("fill-loop.asm", new String[] {
+			"vms", "ldi r1, 0", "ldi r2, 0x2A", "ldi r3, " + BYTES,
+			".loop:", "smb r1, r2", "addi r1, 1", "cmp r1, r3", "jne .loop",
+			"wms", "hlt",
+		}), jit);
+		fill = Programs.machine(Programs.assemble("fill.asm", new String[] {
+			"vms", "ldi r1, 0", "ldi r2, 0x2A", "ldi r3, " + BYTES,
+			"memset r1, r2, r3",
+			"wms", "hlt",
+		}), jit);
+		copyLoop = Programs.machine(Programs.assemble("copy-loop.asm", new String[] {
+			"ldi r1, 0x9000", "ldi r2, 0x8000", "ldi r3, " + (0x8000 + BYTES),
+			".loop:", "lmb r4, r2", "smb r1, r4", "addi r1, 1", "addi r2, 1", "cmp r2, r3", "jne .loop",
+			"hlt",
+		}), jit);
+		copy = Programs.machine(Programs.assemble("copy.asm", new String[] {
+			"ldi r1, 0x9000", "ldi r2, 0x8000", "ldi r3, " + BYTES,
+			"memcpy r1, r2, r3",
+			"hlt",
+		}), jit);
+		crossLoop = Programs.machine(Programs.assemble("cross-loop.asm", new String[] {
+			"ldi r1, 0", "ldi r2, 0x8000", "ldi r3, " + (0x8000 + BYTES),
+			".loop:", "wms", "lmb r4, r2", "vms", "smb r1, r4", "addi r1, 1", "addi r2, 1", "cmp r2, r3", "jne .loop",
+			"wms", "hlt",
+		}), jit);
+		cross = Programs.machine(Programs.assemble("cross.asm", new String[] {
+			"ldi r1, 0", "ldi r2, 0x8000", "ldi r3, " + BYTES,
+			"vms", "memcpyx r1, r2, r3",
+			"wms", "hlt",
+		}), jit);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long fillLoop() {
+		return Programs.run(fillLoop);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long fill() {
+		return Programs.run(fill);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long copyLoop() {
+		return Programs.run(copyLoop);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long copy() {
+		return Programs.run(copy);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long crossLoop() {
+		return Programs.run(crossLoop);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BYTES)
+	public long cross() {
+		return Programs.run(cross);
+	}
+}
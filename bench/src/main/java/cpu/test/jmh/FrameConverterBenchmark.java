@@ -0,0 +1,81 @@
+package cpu.test.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.test.video.FrameConverter;
+import cpu.test.video.PackedPixels;
+
+/**
+ * The frame converters on a whole 240x240 frame, scalar loops vs Vector API lanes:
+ * <ul>
+ * <li>unpack: packed 6-bit VRAM pixels to ARGB through the palette</li>
+ * <li>fill: clear a frame to one colour (Arrays.fill for both, the baseline for the others)</li>
+ * <li>over: composite a half-transparent frame over another one</li>
+ * </ul>
+ * The score is pixels per microsecond. The forks run with jdk.incubator.vector
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+public class FrameConverterBenchmark {
+	static final int PIXELS = PackedPixels.WIDTH * PackedPixels.HEIGHT;
+
+	@Param({ "scalar", "vector" })
+	public String backend;
+
+	private FrameConverter converter;
+	private final byte[] vram = new byte[PackedPixels.SCREEN_BYTES + 64];
+	private final int[] palette = FrameConverter.defaultPalette();
+	private final int[] frame = new int[PIXELS];
+	private final int[] layer = new int[PIXELS];
+
+	@Setup
+	public void setup() {
+		converter = backend.equals("vector") ? FrameConverter.vector() : FrameConverter.scalar();
+		if (converter == null) throw new IllegalStateException("jdk.incubator.vector is not there");
+		Random random = new Random(516);
+		random.nextBytes(vram);
+		for (int i = 0; i < PIXELS; i++) {
+			frame[i] = random.nextInt() | 0xFF000000;
+			layer[i] = random.nextInt() & 0x80FFFFFF;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public int[] unpack() {
+		converter.unpack(vram, 0, PIXELS, palette, frame, 0);
+		return frame;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public int[] fill() {
+		converter.fill(frame, 0, PIXELS, 0xFF102030);
+		return frame;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public int[] over() {
+		converter.over(layer, 0, frame, 0, PIXELS);
+		return frame;
+	}
+}
@@ -0,0 +1,120 @@
+package cpu.test.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.test.Machine;
+
+/**
+ * Interpreter (and JIT) throughput per opcode class. Each benchmark runs a generated loop of
+ * {@value #ITERATIONS} iterations over a body of {@value #BODY} instructions of one class:
+ * <ul>
+ * <li>alu: ADD, ADDI, XOR, SHLI</li>
+ * <li>memory: SMH / LMH pairs</li>
+ * <li>stack: PUSH / POP pairs</li>
+ * <li>branch: taken JMP and not-taken JEQ, alternating</li>
+ * </ul>
+ * plus the {@value #LOOP} loop instructions (SUBI, CMP, JNE), the score is instructions per microsecond (= MIPS)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpcodeClassBenchmark {
+	static final int ITERATIONS = 1000;
+	static final int BODY       = 16;
+	static final int LOOP       = 3;
+	static final int OPERATIONS = ITERATIONS * (BODY + LOOP);
+
+	@Param({ "false", "true" })
+	public boolean jit;
+
+	private Machine alu, memory, stack, branch;
+
+	@Setup
+	public void setup() {
+		alu = Programs.machine(loop("alu", List.of(), i -> {
+			switch (i % 4) {
+			case 0:  return "add r1, r2";
+			case 1:  return "addi r3, 7";
+			case 2:  return "xor r4, r1";
+			default: return "shli r5, 1";
+			}
+		}), jit);
+		memory = Programs.machine(loop("memory", List.of("ldi r5, 0x8000", "ldi r7, 0x8010"), i -> {
+			switch (i % 4) {
+			case 0:  return "smh r5, r1";
+			case 1:  return "lmh r2, r5";
+			case 2:  return "smh r7, r2";
+			default: return "lmh r3, r7";
+			}
+		}), jit);
+		stack = Programs.machine(loop("stack", List.of(), i -> i % 2 == 0 ? "push r1" : "pop r2"), jit);
+		// the flags at the top of the body come from the loop's CMP, not equal: the JEQs fall through
+		branch = Programs.machine(loop("branch", List.of(), i -> i % 2 == 0 ? "jmp .b" + i + "\n.b" + i + ":" : "jeq .exit"), jit);
+	}
+
+	interface Body {
+		String instruction(int index);
+	}
+
+	// ldi r8, ITERATIONS; [setup]; .loop: [body] subi r8, 1; cmp r8, r6; jne .loop; .exit: hlt
+	static byte[] loop(String name, List<String> setup, Body body) {
+		List<String> lines = new ArrayList<>();
+		lines.add("ldi r8, " + ITERATIONS);
+		lines.add("ldi r6, 0");
+		lines.add("ldi r1, 0x1234");
+		lines.add("ldi r2, 3");
+		lines.addAll(setup);
+		lines.add(".loop:");
+		for (int i = 0; i < BODY; i++) {
+			for (String line : body.instruction(i).split("\n")) lines.add(line);
+		}
+		lines.add("subi r8, 1");
+		lines.add("cmp r8, r6");
+		lines.add("jne .loop");
+		lines.add(".exit:");
+		lines.add("hlt");
+		return Programs.assemble(name + ".asm", lines.toArray(new String[0]));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public long alu() {
+		return Programs.run(alu);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public long memory() {
+		return Programs.run(memory);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public long stack() {
+		return Programs.run(stack);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public long branch() {
+		return Programs.run(branch);
+	}
+}
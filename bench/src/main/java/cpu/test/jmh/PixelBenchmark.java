@@ -0,0 +1,87 @@
+package cpu.test.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.test.Machine;
+
+/**
+ * Drawing the whole 240x240 screen (packed 6-bit pixels) in one colour:
+ * <ul>
+ * <li>packLoop: per pixel, the shifts and masks done by the guest (LMH / AND / OR / SMH, 24 instructions)</li>
+ * <li>pset: per pixel, PSET / ADDI / CMP / JNE</li>
+ * <li>pfill: per row, one PFILL span</li>
+ * </ul>
+ * The score is pixels per microsecond
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelBenchmark {
+	static final int PIXELS = 240 * 240;
+
+	@Param({ "false", "true" })
+	public boolean jit;
+
+	private Machine packLoop, pset, pfill;
+
+	@Setup
+	public void setup() {
+		// r0 = end of the screen, r1 = pixel, r2 = colour
+		packLoop = Programs.machine(Programs.assemble("pack-loop.asm", new String[] {
+			"ldi r0, " + PIXELS, "ldi r1, 0", "ldi r2, 0b011011", "vms",
+			".loop",
+			// r4 = byte of the pixel = (r1 / 4) * 3 + (r1 % 4) * 3 / 4, r5 = its shift in the half-word there
+			"mov r3, r1", "andi r3, 3", "mov r4, r1", "shri r4, 2", "muli r4, 3",
+			"mov r5, r3", "muli r5, 3", "shri r5, 2", "add r4, r5",
+			"muli r3, 6", "andi r3, 7", "ldi r5, 10", "sub r5, r3",
+			"ldi r6, 63", "shl r6, r5", "not r6",
+			"lmh r7, r4", "and r7, r6", "mov r8, r2", "shl r8, r5", "or r7, r8", "smh r4, r7",
+			"addi r1, 1", "cmp r1, r0", "jne .loop",
+			"wms", "hlt",
+		}), jit);
+		pset = Programs.machine(Programs.assemble("pset.asm", new String[] {
+			"ldi r0, " + PIXELS, "ldi r1, 0", "ldi r2, 0b011011",
+			".loop", "pset r1, r2", "addi r1, 1", "cmp r1, r0", "jne .loop",
+			"hlt",
+		}), jit);
+		pfill = Programs.machine(Programs.assemble("pfill.asm", new String[] {
+			"ldi r0, " + PIXELS, "ldi r1, 0", "ldi r2, 0b011011", "ldi r3, 240",
+			".loop", "pfill r1, r2, r3", "add r1, r3", "cmp r1, r0", "jne .loop",
+			"hlt",
+		}), jit);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public long packLoop() {
+		return Programs.run(packLoop);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public long pset() {
+		return Programs.run(pset);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PIXELS)
+	public long pfill() {
+		return Programs.run(pfill);
+	}
+}
@@ -0,0 +1,47 @@
+package cpu.test.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import cpu.test.Machine;
+
+/**
+ * Whole programs of asm/, assembled once and run from power-on to HLT per invocation
+ * (graphics.asm is left out, it doesn't assemble)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProgramBenchmark {
+	@Param({ "fib", "forloop", "general-test", "memtest", "stacktest", "test", "testlungtung" })
+	public String program;
+
+	@Param({ "false", "true" })
+	public boolean jit;
+
+	private Machine machine;
+
+	@Setup
+	public void setup() {
+		machine = Programs.machine(Programs.assemble(program + ".asm", Programs.source(program)), jit);
+	}
+
+	@Benchmark
+	public long run() {
+		return Programs.run(machine);
+	}
+}
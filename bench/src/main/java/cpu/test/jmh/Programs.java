@@ -0,0 +1,50 @@
+package cpu.test.jmh;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import cpu.test.Machine;
+import cpu.test.assembler.ShitwareAssembler;
+
+/** Shared helpers of the benchmarks: finding and assembling sources, making silent machines */
+final class Programs {
+	static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+	/** where the .asm programs are, -Dfl516.asm (../asm by default, the module runs from bench/) */
+	static final Path ASM = Paths.get(System.getProperty("fl516.asm", "../asm"));
+
+	private Programs() {}
+
+	/** assemble a source into a program image (.o) */
+	static byte[] assemble(String fileName, String[] lines) {
+		ShitwareAssembler.reset();
+		ShitwareAssembler.assemble(fileName, lines);
+		return ShitwareAssembler.image();
+	}
+
+	/** the lines of asm/name.asm */
+	static String[] source(String name) {
+		try {
+			return Files.readAllLines(ASM.resolve(name + ".asm")).toArray(new String[0]);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can't read " + name + ".asm from " + ASM.toAbsolutePath() + " (set -Dfl516.asm)", e);
+		}
+	}
+
+	/** a machine loaded with the program, no output */
+	static Machine machine(byte[] rom, boolean jit) {
+		return new Machine(rom).setOutput(DISCARD, DISCARD).setJit(jit);
+	}
+
+	/** run the machine from power-on until it halts, returns the instructions retired */
+	static long run(Machine machine) {
+		machine.reset();
+		machine.runFor(Long.MAX_VALUE);
+		return machine.instructionsRetired;
+	}
+}
@@ -0,0 +1,170 @@
+package cpu.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import cpu.test.perf.SourceMap;
+
+/**
+ * Breakpoints on code addresses and watchpoints on RAM / VRAM / I/O ranges of one machine
+ * (see {@link Machine#breakpoints()}), set from the outside without touching the program.
+ * <p>
+ * While there are none the machine runs as usual. Otherwise it switches to its checked path for
+ * the next slice: no compiled blocks and no fused pairs, one bitmap test per instruction for the
+ * breakpoints, and for every load / store / stack access a test of a per-bank page bitmap
+ * (256-byte pages) before the watch ranges themselves are looked at.
+ * <p>
+ * A breakpoint pauses the machine before the instruction at its address, a watchpoint right after the
+ * accessing instruction; {@link Machine#resume()} goes on from there. Best set while the machine is
+ * paused or not started, changes made while it runs are only picked up at its next slice
+ */
+public final class Breakpoints {
+	public enum Kind {
+		BREAKPOINT, READ, WRITE
+	}
+
+	/** what stopped the machine */
+	public static final class Hit {
+		public final Kind kind;
+		/** address of the instruction (about to run for a breakpoint, the accessing one for a watchpoint) */
+		public final int  pc;
+		/** the bank, address and value (read or written) of a watchpoint hit */
+		public final int  bank;
+		public final int  address;
+		public final int  value;
+
+		Hit(Kind kind, int pc, int bank, int address, int value) {
+			this.kind    = kind;
+			this.pc      = pc;
+			this.bank    = bank;
+			this.address = address;
+			this.value   = value;
+		}
+
+		@Override
+		public String toString() {
+			if (kind == Kind.BREAKPOINT) return String.format("breakpoint at %04X", pc);
+			return String.format("watchpoint: %s %s[%04X] = %04X by the instruction at %04X",
+				kind == Kind.READ ? "read" : "write", bank == FL516CPU.VRAM ? "VRAM" : bank == FL516CPU.IO ? "IO" : "RAM", address, value, pc);
+		}
+
+		/** same as toString, plus the source line of the instruction */
+		public String describe(SourceMap source) {
+			int line = source.line(pc);
+			if (line == 0) return toString();
+			return toString() + " (" + source.fileName + ":" + line + " [" + source.label(pc) + "] " + source.source(pc) + ")";
+		}
+	}
+
+	// a watched range of one bank (inclusive)
+	private static final class Watch {
+		final int bank, from, to;
+		final boolean read, write;
+
+		Watch(int bank, int from, int to, boolean read, boolean write) {
+			this.bank  = bank;
+			this.from  = from;
+			this.to    = to;
+			this.read  = read;
+			this.write = write;
+		}
+	}
+
+	private final long[]   code    = new long[65536 / 64]; // one bit per address
+	private int            codeCount = 0;
+	private final long[][] pages   = new long[3][256 / 64]; // per bank, one bit per 256-byte page with a watch
+	private final List<Watch> watches = new CopyOnWriteArrayList<>();
+
+	private volatile Consumer<Hit> listener = null;
+	private volatile Hit lastHit = null;
+	// a watchpoint was hit in this slice, the machine pauses before its next instruction
+	boolean stopRequested = false;
+
+	Breakpoints() {}
+
+	/** stop before the instruction at pc is executed */
+	public synchronized Breakpoints add(int pc) {
+		pc &= 0xFFFF;
+		if ((code[pc >>> 6] & (1L << pc)) == 0) codeCount++;
+		code[pc >>> 6] |= 1L << pc;
+		return this;
+	}
+
+	public synchronized Breakpoints remove(int pc) {
+		pc &= 0xFFFF;
+		if ((code[pc >>> 6] & (1L << pc)) != 0) codeCount--;
+		code[pc >>> 6] &= ~(1L << pc);
+		return this;
+	}
+
+	/**
+	 * stop after any instruction reading and / or writing a byte of bank between from and to (inclusive),
+	 * instruction fetches don't count
+	 */
+	public synchronized Breakpoints watch(int bank, int from, int to, boolean read, boolean write) {
+		if (bank != FL516CPU.RAM && bank != FL516CPU.VRAM && bank != FL516CPU.IO) throw new IllegalArgumentException("No such memory bank: " + bank);
+		if (from < 0 || to > 0xFFFF || from > to) throw new IllegalArgumentException(String.format("Invalid watch range %04X-%04X", from, to));
+		watches.add(new Watch(bank, from, to, read, write));
+		for (int page = from >>> 8; page <= to >>> 8; page++) pages[bank][page >>> 6] |= 1L << page;
+		return this;
+	}
+
+	/** drop the watchpoints of bank overlapping from..to */
+	public synchronized Breakpoints unwatch(int bank, int from, int to) {
+		watches.removeIf(watch -> watch.bank == bank && watch.from <= to && from <= watch.to);
+		for (long[] bankPages : pages) Arrays.fill(bankPages, 0);
+		for (Watch watch : watches) {
+			for (int page = watch.from >>> 8; page <= watch.to >>> 8; page++) pages[watch.bank][page >>> 6] |= 1L << page;
+		}
+		return this;
+	}
+
+	public synchronized void clear() {
+		Arrays.fill(code, 0);
+		codeCount = 0;
+		watches.clear();
+		for (long[] bankPages : pages) Arrays.fill(bankPages, 0);
+	}
+
+	public boolean isEmpty() {
+		return codeCount == 0 && watches.isEmpty();
+	}
+
+	/** called on the machine's thread for every hit, right before the machine pauses */
+	public Breakpoints onHit(Consumer<Hit> listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/** the last hit, null if none so far */
+	public Hit lastHit() {
+		return lastHit;
+	}
+
+	boolean isBreakpoint(int pc) {
+		return (code[pc >>> 6] & (1L << pc)) != 0;
+	}
+
+	// the page bitmap first, the ranges only on a watched page
+	boolean watches(int bank, int address, int size, boolean write) {
+		int first = address >>> 8, last = ((address + size - 1) & 0xFFFF) >>> 8;
+		long[] bankPages = pages[bank];
+		// every page of the access (one or two, more for block copies)
+		for (int page = first; (bankPages[page >>> 6] & (1L << page)) == 0; page = (page + 1) & 0xFF) {
+			if (page == last) return false;
+		}
+		int end = address + size - 1;
+		for (Watch watch : watches) {
+			if (watch.bank == bank && (write ? watch.write : watch.read) && watch.from <= end && address <= watch.to) return true;
+		}
+		return false;
+	}
+
+	void hit(Hit hit) {
+		lastHit = hit;
+		Consumer<Hit> listener = this.listener;
+		if (listener != null) listener.accept(hit);
+	}
+}
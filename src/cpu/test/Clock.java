@@ -0,0 +1,138 @@
+package cpu.test;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The clock of a machine, decides how many instructions the CPU may execute before it has to
+ * come back and ask again (a "slice").
+ * <ul>
+ * <li>MAX_SPEED: no sleeping at all, slices are only there so the CPU can notice pauses</li>
+ * <li>TARGET_HZ: paces execution to the requested frequency, parks once per slice</li>
+ * <li>SINGLE_STEP: the CPU blocks until the host grants it instructions via {@link #step(int)}</li>
+ * </ul>
+ * One clock per machine (it keeps the timing of that machine's run)
+ */
+public class Clock {
+	public enum Mode {
+		MAX_SPEED, TARGET_HZ, SINGLE_STEP
+	}
+
+	// how many times per second a TARGET_HZ clock parks the CPU thread
+	public static final int SLICES_PER_SECOND = 1000;
+	// how many instructions a MAX_SPEED clock hands out at once
+	public static final int MAX_SPEED_SLICE   = 1 << 16;
+
+	private final Mode mode;
+	private final long targetHz;
+	private final int  sliceSize;
+
+	// instructions granted by the host (SINGLE_STEP only)
+	private final Semaphore steps = new Semaphore(0);
+
+	// timing of the current/last run
+	private long startNanos;
+	private long stopNanos;
+	private long retired;
+
+	private Clock(Mode mode, long targetHz) {
+		this.mode = mode;
+		this.targetHz = targetHz;
+		// e.g. 1 MHz = 1000 instructions per slice, never less than one instruction
+		this.sliceSize = mode == Mode.TARGET_HZ ? (int) Math.max(1, Math.min(MAX_SPEED_SLICE, targetHz / SLICES_PER_SECOND)) : MAX_SPEED_SLICE;
+	}
+
+	/** run as fast as the host can */
+	public static Clock maxSpeed() {
+		return new Clock(Mode.MAX_SPEED, 0);
+	}
+
+	/** run at (about) the given frequency, in instructions per second */
+	public static Clock targetHz(long hz) {
+		if (hz <= 0) throw new IllegalArgumentException("Clock frequency must be positive! (got " + hz + ")");
+		return new Clock(Mode.TARGET_HZ, hz);
+	}
+
+	/** only run when the host says so (see {@link #step(int)}) */
+	public static Clock singleStep() {
+		return new Clock(Mode.SINGLE_STEP, 0);
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public long getTargetHz() {
+		return targetHz;
+	}
+
+	/** (host) allow a SINGLE_STEP machine to execute n more instructions */
+	public void step(int n) {
+		if (n > 0) steps.release(n);
+	}
+
+	public void step() {
+		step(1);
+	}
+
+	void start() {
+		startNanos = System.nanoTime();
+		stopNanos  = 0;
+		retired    = 0;
+	}
+
+	/**
+	 * (CPU thread) wait until the CPU is allowed to run, and return how many instructions it
+	 * may execute right now
+	 */
+	int nextSlice() throws InterruptedException {
+		switch (mode) {
+		case SINGLE_STEP:
+			// block until the host grants at least one instruction, then take everything granted so far
+			steps.acquire();
+			return 1 + steps.drainPermits();
+		case TARGET_HZ:
+			// the instructions retired so far are "due" at this point in time, if we are
+			// ahead of schedule, park until then
+			long due = startNanos + (long) (retired * 1e9 / targetHz);
+			long wait;
+			while ((wait = due - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, wait);
+				if (Thread.interrupted()) throw new InterruptedException();
+			}
+			return sliceSize;
+		default:
+			return sliceSize;
+		}
+	}
+
+	/** (CPU thread) account for the instructions executed in the last slice */
+	void retire(int executed) {
+		retired += executed;
+	}
+
+	void stop() {
+		stopNanos = System.nanoTime();
+	}
+
+	public long getRetired() {
+		return retired;
+	}
+
+	public long elapsedNanos() {
+		return (stopNanos == 0 ? System.nanoTime() : stopNanos) - startNanos;
+	}
+
+	/** million instructions per second achieved by the current/last run */
+	public double achievedMips() {
+		long elapsed = elapsedNanos();
+		return elapsed <= 0 ? 0 : retired * 1e3 / elapsed;
+	}
+
+	/** a one-liner of the achieved speed vs the target */
+	public String report() {
+		String target = mode == Mode.TARGET_HZ ? String.format("%d Hz (%.3f MIPS)", targetHz, targetHz / 1e6) : "unbounded";
+		return String.format("[CLOCK | %s] target: %s, achieved: %.3f MIPS (%d instructions in %.3f ms)",
+			mode, target, achievedMips(), retired, elapsedNanos() / 1e6);
+	}
+}
@@ -0,0 +1,250 @@
+package cpu.test;
+
+import static cpu.test.FL516CPU.*;
+
+import java.util.Arrays;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * The pre-decode stage of the interpreter.
+ * <p>
+ * An instruction is decoded once into a packed {@code long}:
+ * [dense opcode index:8][raw opcode:8][operand 1:16][operand 2:16], and cached by the machine
+ * (one slot per 5-byte instruction of the program). The dense index is what the interpreter
+ * switches on, the raw opcodes are sparse (0x00..0x24, 0x3A.., 0x40.., 0xF0..) so switching on them
+ * would compile to a lookup instead of a jump table.
+ * <p>
+ * A decoded op is never 0 (dense indices start at 1), so a zeroed slot means "not decoded yet"
+ * <p>
+ * Superinstructions: a few common pairs are fused into one op (see {@link #fuse(long, long)}),
+ * the interpreter then runs both instructions in one dispatch. A fused op sits in the slot of the
+ * first instruction, the second one keeps its own slot (it can still be a jump target)
+ */
+public final class Decoder {
+	/* dense opcode indices */
+	public static final int OP_NONE    = 0; // not decoded yet
+	public static final int OP_UNKNOWN = 1; // no such opcode, the CPU faults
+	public static final int OP_NOP     = 2;
+	public static final int OP_DBGP    = 3;
+	// data controls
+	public static final int OP_MOV     = 4;
+	public static final int OP_LDI     = 5;
+	public static final int OP_LMH     = 6;
+	public static final int OP_LMB     = 7;
+	public static final int OP_SMH     = 8;
+	public static final int OP_SMB     = 9;
+	public static final int OP_VMS     = 10;
+	public static final int OP_WMS     = 11;
+	// arithmetic & bitwise controls
+	public static final int OP_ADD     = 12;
+	public static final int OP_ADDI    = 13;
+	public static final int OP_SUB     = 14;
+	public static final int OP_SUBI    = 15;
+	public static final int OP_MUL     = 16;
+	public static final int OP_MULI    = 17;
+	public static final int OP_DIV     = 18;
+	public static final int OP_DIVI    = 19;
+	public static final int OP_MOD     = 20;
+	public static final int OP_MODI    = 21;
+	public static final int OP_AND     = 22;
+	public static final int OP_ANDI    = 23;
+	public static final int OP_OR      = 24;
+	public static final int OP_ORI     = 25;
+	public static final int OP_XOR     = 26;
+	public static final int OP_XORI    = 27;
+	public static final int OP_SHR     = 28;
+	public static final int OP_SHRI    = 29;
+	public static final int OP_SHL     = 30;
+	public static final int OP_SHLI    = 31;
+	public static final int OP_NOT     = 32;
+	// stack operations
+	public static final int OP_PUSH    = 33;
+	public static final int OP_IPUSH   = 34;
+	public static final int OP_POP     = 35;
+	// flow controls
+	public static final int OP_HLT     = 36;
+	public static final int OP_JMP     = 37;
+	public static final int OP_CMP     = 38;
+	public static final int OP_JEQ     = 39;
+	public static final int OP_JNE     = 40;
+	public static final int OP_JLT     = 41;
+	public static final int OP_JGT     = 42;
+	public static final int OP_JLE     = 43;
+	public static final int OP_JGE     = 44;
+	public static final int OP_CALL    = 45;
+	public static final int OP_RET     = 46;
+	// interrupts
+	public static final int OP_EI      = 47;
+	public static final int OP_DI      = 48;
+	public static final int OP_IRET    = 49;
+	public static final int OP_WAIT    = 50;
+	public static final int OP_IVEC    = 51;
+	public static final int OP_TMR     = 52;
+	// I/O bank
+	public static final int OP_IMS     = 53;
+	// host calls
+	public static final int OP_HCALL   = 54;
+	// bulk memory
+	public static final int OP_MEMCPY  = 55;
+	public static final int OP_MEMSET  = 56;
+	public static final int OP_MEMCPYX = 57;
+	// packed pixels
+	public static final int OP_PSET    = 58;
+	public static final int OP_PGET    = 59;
+	public static final int OP_PFILL   = 60;
+	// fused pairs (superinstructions), always the last indices
+	public static final int OP_CMP_JCC  = 61; // CMP rA, rB + JEQ/JNE/JLT/JGT/JLE/JGE
+	public static final int OP_ADDI_JMP = 62; // ADDI rX, imm + JMP
+	public static final int OP_LDI_LMH  = 63; // LDI rX, imm + LMH rY, rX
+	public static final int OP_LDI_LMB  = 64; // LDI rX, imm + LMB rY, rX
+	public static final int OP_FUSED    = OP_CMP_JCC; // first fused index
+
+	// raw opcode -> dense index
+	private static final byte[] DENSE = new byte[256];
+
+	static {
+		Arrays.fill(DENSE, (byte) OP_UNKNOWN);
+		DENSE[NOP]   = OP_NOP;
+		DENSE[DBGP]  = OP_DBGP;
+		DENSE[MOV]   = OP_MOV;
+		DENSE[LDI]   = OP_LDI;
+		DENSE[LMH]   = OP_LMH;
+		DENSE[LMB]   = OP_LMB;
+		DENSE[SMH]   = OP_SMH;
+		DENSE[SMB]   = OP_SMB;
+		DENSE[VMS]   = OP_VMS;
+		DENSE[WMS]   = OP_WMS;
+		DENSE[ADD]   = OP_ADD;
+		DENSE[ADDI]  = OP_ADDI;
+		DENSE[SUB]   = OP_SUB;
+		DENSE[SUBI]  = OP_SUBI;
+		DENSE[MUL]   = OP_MUL;
+		DENSE[MULI]  = OP_MULI;
+		DENSE[DIV]   = OP_DIV;
+		DENSE[DIVI]  = OP_DIVI;
+		DENSE[MOD]   = OP_MOD;
+		DENSE[MODI]  = OP_MODI;
+		DENSE[AND]   = OP_AND;
+		DENSE[ANDI]  = OP_ANDI;
+		DENSE[OR]    = OP_OR;
+		DENSE[ORI]   = OP_ORI;
+		DENSE[XOR]   = OP_XOR;
+		DENSE[XORI]  = OP_XORI;
+		DENSE[SHR]   = OP_SHR;
+		DENSE[SHRI]  = OP_SHRI;
+		DENSE[SHL]   = OP_SHL;
+		DENSE[SHLI]  = OP_SHLI;
+		DENSE[NOT]   = OP_NOT;
+		DENSE[PUSH]  = OP_PUSH;
+		DENSE[IPUSH] = OP_IPUSH;
+		DENSE[POP]   = OP_POP;
+		DENSE[HLT]   = OP_HLT;
+		DENSE[JMP]   = OP_JMP;
+		DENSE[CMP]   = OP_CMP;
+		DENSE[JEQ]   = OP_JEQ;
+		DENSE[JNE]   = OP_JNE;
+		DENSE[JLT]   = OP_JLT;
+		DENSE[JGT]   = OP_JGT;
+		DENSE[JLE]   = OP_JLE;
+		DENSE[JGE]   = OP_JGE;
+		DENSE[CALL]  = OP_CALL;
+		DENSE[RET]   = OP_RET;
+		DENSE[EI]    = OP_EI;
+		DENSE[DI]    = OP_DI;
+		DENSE[IRET]  = OP_IRET;
+		DENSE[WAIT]  = OP_WAIT;
+		DENSE[IVEC]  = OP_IVEC;
+		DENSE[TMR]   = OP_TMR;
+		DENSE[IMS]   = OP_IMS;
+		DENSE[HCALL] = OP_HCALL;
+		DENSE[MEMCPY]  = OP_MEMCPY;
+		DENSE[MEMSET]  = OP_MEMSET;
+		DENSE[MEMCPYX] = OP_MEMCPYX;
+		DENSE[PSET]  = OP_PSET;
+		DENSE[PGET]  = OP_PGET;
+		DENSE[PFILL] = OP_PFILL;
+	}
+
+	private Decoder() {}
+
+	/** the dense index of a raw opcode */
+	public static int denseIndex(int opcode) {
+		return DENSE[opcode & 0xFF];
+	}
+
+	/**
+	 * Decode the 5-byte instruction at {@code pc}
+	 * @param memory bank 0 (instructions are always fetched from working RAM)
+	 */
+	public static long decode(MemoryBank memory, int pc) {
+		// fetch instructions (5 bytes): the opcode and two big-endian 16-bit operands
+		int opcode = memory.getByte(pc);
+		int opr1   = memory.getHalf(pc + 1);
+		int opr2   = memory.getHalf(pc + 3);
+		return pack(DENSE[opcode], opcode, opr1, opr2);
+	}
+
+	/**
+	 * Decode the instruction at {@code pc}, fused with the next one if the pair is a known idiom
+	 * @param limit the next instruction is only looked at if it ends before this address
+	 */
+	public static long decodeFused(MemoryBank memory, int pc, int limit) {
+		long first = decode(memory, pc);
+		if (pc + 10 > limit) return first;
+		return fuse(first, decode(memory, pc + 5));
+	}
+
+	/**
+	 * Fuse two consecutive instructions into one op, or return the first one as is.
+	 * <pre>
+	 * CMP rA, rB  + Jcc target  -> [OP_CMP_JCC:8][Jcc opcode:8][rA:8 rB:8][target:16]
+	 * ADDI rX, v  + JMP target  -> [OP_ADDI_JMP:8][rX:8][v:16][target:16]
+	 * LDI rX, v   + LMH rY, rX  -> [OP_LDI_LMH:8][LDI:8][rX:8 rY:8][v:16] (same for LMB)
+	 * </pre>
+	 * Pairs with a register index out of range or a misaligned JMP are left alone, so the
+	 * interpreter still faults / warns the same way
+	 */
+	public static long fuse(long first, long second) {
+		int a = opr1(first), b = opr2(first);
+		int next = dense(second);
+		switch (dense(first)) {
+		case OP_CMP:
+			if (a < 10 && b < 10 && next >= OP_JEQ && next <= OP_JGE) {
+				return pack(OP_CMP_JCC, opcode(second), a << 8 | b, opr1(second));
+			}
+			break;
+		case OP_ADDI:
+			if (a < 10 && next == OP_JMP && opr1(second) % 5 == 0) {
+				return pack(OP_ADDI_JMP, a, b, opr1(second));
+			}
+			break;
+		case OP_LDI:
+			if (a < 10 && (next == OP_LMH || next == OP_LMB) && opr2(second) == a && opr1(second) < 10) {
+				return pack(next == OP_LMH ? OP_LDI_LMH : OP_LDI_LMB, LDI, a << 8 | opr1(second), b);
+			}
+			break;
+		}
+		return first;
+	}
+
+	public static long pack(int dense, int opcode, int opr1, int opr2) {
+		return ((long) dense << 40) | ((long) opcode << 32) | ((long) (opr1 & 0xFFFF) << 16) | (opr2 & 0xFFFF);
+	}
+
+	public static int dense(long op) {
+		return (int) (op >>> 40);
+	}
+
+	public static int opcode(long op) {
+		return (int) (op >>> 32) & 0xFF;
+	}
+
+	public static char opr1(long op) {
+		return (char) (op >>> 16);
+	}
+
+	public static char opr2(long op) {
+		return (char) op;
+	}
+}
@@ -0,0 +1,105 @@
+package cpu.test;
+
+import static cpu.test.Decoder.*;
+import static cpu.test.FL516CPU.*;
+
+import java.util.Arrays;
+
+import cpu.test.device.DeviceBus;
+import cpu.test.memory.MemoryBank;
+
+/**
+ * Idle-loop detection: is the machine spinning in a loop that can't get anywhere by itself, like
+ * {@code .done: jmp .done} or polling a memory location that nothing in the program writes?
+ * <p>
+ * The machine's next instructions are replayed on a copy of its registers and flags, for at most
+ * {@value #MAX_STEPS} instructions. Only instructions without side effects are replayed (moves, loads,
+ * bitwise ops, compares, jumps), anything else (a store, the stack, an interrupt opcode, HLT, most device
+ * accesses...) means "not idle". If the replay gets back to the very state it started from (PC, registers,
+ * flags, memory mode) the loop is idle: it never wrote anything, so it will go round forever until
+ * something from the outside changes the memory it reads, raises an interrupt or the host steps in.
+ * <p>
+ * Nothing is done per instruction, the machine asks once per slice (see Machine#runUntilHalt and
+ * Machine#runFor), after a whole slice in the same loop the replay starts inside of its cycle
+ */
+final class IdleLoop {
+	static final int MAX_STEPS = 256;
+
+	private IdleLoop() {}
+
+	/**
+	 * @return the length (in instructions) of the idle loop the machine is in, 0 if it isn't in one
+	 * (or it can't tell). Must be called from the machine's thread, between two slices
+	 */
+	static int cycle(Machine machine) {
+		if (machine.WAITING || (machine.IE && machine.interrupts().pending() != 0)) return 0;
+		MemoryBank[] memory = machine.MEMORY;
+		char[] regs = machine.REGS.clone();
+		boolean zfl = machine.ZFL, cfl = machine.CFL;
+		int mode = machine.MEMORY_MODE;
+		int start = machine.PROGRAM_COUNTER;
+		int pc = start;
+		for (int step = 1; step <= MAX_STEPS; step++) {
+			if (pc < 0 || pc > 0xFFFF - 4) return 0;
+			long op = Decoder.decode(memory[RAM], pc);
+			int a = opr1(op), b = opr2(op);
+			int next = pc + 5;
+			switch (dense(op)) {
+			case OP_NOP:
+				break;
+			case OP_MOV:
+				if (a >= 10 || (b >= 10 && b != 0xFF)) return 0;
+				regs[a] = b == 0xFF ? (char) (next % 65536) : regs[b];
+				break;
+			case OP_LDI:
+				if (a >= 10) return 0;
+				regs[a] = (char) b;
+				break;
+			case OP_LMH: case OP_LMB:
+				// device registers may have side effects and change by themselves, unless they say otherwise
+				if (a >= 10 || b >= 10 || (mode == IO && !((DeviceBus) memory[IO]).pure(regs[b]))) return 0;
+				regs[a] = (char) (dense(op) == OP_LMH ? memory[mode].getHalf(regs[b]) : memory[mode].getByte(regs[b]));
+				break;
+			case OP_VMS: case OP_WMS: case OP_IMS:
+				mode = opcode(op) == VMS ? VRAM : opcode(op) == IMS ? IO : RAM;
+				break;
+			case OP_AND: case OP_OR: case OP_XOR:
+				if (a >= 10 || b >= 10) return 0;
+				regs[a] = bitwise(opcode(op), regs[a], regs[b]);
+				break;
+			case OP_ANDI: case OP_ORI: case OP_XORI:
+				if (a >= 10) return 0;
+				regs[a] = bitwise(opcode(op), regs[a], b);
+				break;
+			case OP_CMP: {
+				if (a >= 10 || b >= 10) return 0;
+				int result = (regs[a] & 0xFFFF) - (regs[b] & 0xFFFF);
+				zfl = (result & 0xFFFF) == 0;
+				cfl = (result & ~0xFFFF) != 0;
+				break;
+			}
+			case OP_JMP:
+				if (a % 5 != 0) return 0; // the interpreter warns every time
+				next = a;
+				break;
+			case OP_JEQ: case OP_JNE: case OP_JLT: case OP_JGT: case OP_JLE: case OP_JGE:
+				if (Machine.taken(opcode(op), Machine.flagResult(zfl, cfl))) next = a;
+				break;
+			default:
+				return 0;
+			}
+			pc = next;
+			if (pc == start && mode == machine.MEMORY_MODE && zfl == machine.ZFL && cfl == machine.CFL && Arrays.equals(regs, machine.REGS)) {
+				return step;
+			}
+		}
+		return 0;
+	}
+
+	// AND / OR / XOR (or their immediate forms) of two 16-bit values
+	private static char bitwise(int opcode, int value1, int value2) {
+		if (opcode == AND || opcode == ANDI) return (char) (value1 & value2);
+		if (opcode == OR || opcode == ORI) return (char) (value1 | value2);
+		return (char) (value1 ^ value2);
+	}
+}
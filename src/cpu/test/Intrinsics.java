@@ -0,0 +1,177 @@
+package cpu.test;
+
+import static cpu.test.FL516CPU.*;
+
+import java.util.Arrays;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * The host calls of the HCALL instruction: Java code the guest runs by number ({@code HCALL n}) for what
+ * would take it thousands of instructions.
+ * <p>
+ * An intrinsic works on the machine directly (REGS, MEMORY, the selected bank...) and returns its cost in
+ * instructions, the HCALL retires that many (the clock paces them, they count against a runFor budget).
+ * Machines use the JVM-wide table ({@link #standard()}) unless they get their own
+ * (Machine#setIntrinsics), register intrinsics before the machines using them run. The standard ones take
+ * their arguments in r1..r3 and return in r0, on the selected bank (RAM unless VMS), a range stops at the end
+ * of the bank. They fault in IO mode, the devices behind the I/O bank are only driven by loads and stores:
+ * <pre>
+ *  0 STRLEN  r0 = length of the NUL-terminated string at r1
+ *  1 MEMCPY  copy r3 bytes from r2 to r1 (overlapping ranges are fine)
+ *  2 ITOA    write r2 in decimal at r1, NUL-terminated, r0 = number of digits
+ *  3 SORT    sort the r2 bytes at r1 (unsigned, ascending)
+ * </pre>
+ * Intrinsics are invisible to watchpoints, and run on the machine's thread
+ */
+public final class Intrinsics {
+	/** HCALL numbers go from 0 to SIZE - 1 */
+	public static final int SIZE = 256;
+
+	public static final int STRLEN = 0;
+	public static final int MEMCPY = 1;
+	public static final int ITOA   = 2;
+	public static final int SORT   = 3;
+
+	/** Java code behind an HCALL number */
+	@FunctionalInterface
+	public interface Intrinsic {
+		/**
+		 * @return the cost in instructions, at least 1
+		 * @throws IllegalStateException to stop the machine with a fault (the message is printed)
+		 */
+		long call(Machine machine);
+	}
+
+	private static final Intrinsics STANDARD = withStandard();
+
+	// copy-on-write, so the machines read them without a lock
+	private volatile Intrinsic[] table = new Intrinsic[SIZE];
+	private volatile String[]    names = new String[SIZE];
+
+	/** an empty table */
+	public Intrinsics() {}
+
+	/** the table of every machine that wasn't given another one, with the standard intrinsics */
+	public static Intrinsics standard() {
+		return STANDARD;
+	}
+
+	/** a new table with the standard intrinsics only */
+	public static Intrinsics withStandard() {
+		return new Intrinsics()
+			.register(STRLEN, "STRLEN", Intrinsics::strlen)
+			.register(MEMCPY, "MEMCPY", Intrinsics::memcpy)
+			.register(ITOA,   "ITOA",   Intrinsics::itoa)
+			.register(SORT,   "SORT",   Intrinsics::sort);
+	}
+
+	/**
+	 * make intrinsic callable as {@code HCALL index} (or {@code HCALL name} in the assembler, names are case
+	 * insensitive)
+	 * @throws IllegalArgumentException if the index is out of range or taken, or the name is taken
+	 */
+	public synchronized Intrinsics register(int index, String name, Intrinsic intrinsic) {
+		if (index < 0 || index >= SIZE) throw new IllegalArgumentException("HCALL numbers go from 0 to " + (SIZE - 1) + " (got " + index + ")");
+		if (table[index] != null) throw new IllegalArgumentException("HCALL " + index + " is taken by " + names[index]);
+		if (index(name) >= 0) throw new IllegalArgumentException("There is an intrinsic named " + name + " already");
+		Intrinsic[] table = this.table.clone();
+		String[]    names = this.names.clone();
+		table[index] = intrinsic;
+		names[index] = name.toUpperCase();
+		this.names = names;
+		this.table = table;
+		return this;
+	}
+
+	/** remove the intrinsic of an HCALL number, if any */
+	public synchronized Intrinsics unregister(int index) {
+		if (index < 0 || index >= SIZE || table[index] == null) return this;
+		Intrinsic[] table = this.table.clone();
+		String[]    names = this.names.clone();
+		table[index] = null;
+		names[index] = null;
+		this.table = table;
+		this.names = names;
+		return this;
+	}
+
+	/** the intrinsic of an HCALL number, null if none */
+	public Intrinsic get(int index) {
+		return index >= 0 && index < SIZE ? table[index] : null;
+	}
+
+	/** the HCALL number of an intrinsic name (case insensitive), -1 if unknown */
+	public int index(String name) {
+		String[] names = this.names;
+		for (int i = 0; i < SIZE; i++) {
+			if (names[i] != null && names[i].equalsIgnoreCase(name)) return i;
+		}
+		return -1;
+	}
+
+	public String name(int index) {
+		return index >= 0 && index < SIZE ? names[index] : null;
+	}
+
+	/* the standard intrinsics, about one instruction per 8 bytes they go through */
+
+	private static long strlen(Machine machine) {
+		MemoryBank bank = bank(machine);
+		int start = machine.REGS[1], end = start;
+		while (end < MemoryBank.SIZE && bank.getByte(end) != 0) end++;
+		machine.REGS[0] = (char) (end - start);
+		return 1 + (end - start) / 8;
+	}
+
+	private static long memcpy(Machine machine) {
+		MemoryBank bank = bank(machine);
+		int dst = machine.REGS[1], src = machine.REGS[2];
+		int length = Math.min(machine.REGS[3], MemoryBank.SIZE - Math.max(dst, src));
+		bank.copy(src, bank, dst, length);
+		written(machine, dst, length);
+		return 1 + length / 8;
+	}
+
+	private static long itoa(Machine machine) {
+		MemoryBank bank = bank(machine);
+		int dst = machine.REGS[1];
+		String digits = Integer.toString(machine.REGS[2]);
+		int length = Math.min(digits.length() + 1, MemoryBank.SIZE - dst);
+		for (int i = 0; i < length; i++) bank.setByte(dst + i, i < digits.length() ? digits.charAt(i) : 0);
+		written(machine, dst, length);
+		machine.REGS[0] = (char) digits.length();
+		return 1 + digits.length();
+	}
+
+	private static long sort(Machine machine) {
+		MemoryBank bank = bank(machine);
+		int start = machine.REGS[1];
+		int length = Math.min(machine.REGS[2], MemoryBank.SIZE - start);
+		byte[] bytes = new byte[length];
+		bank.read(start, bytes, 0, length);
+		// unsigned: sort with the sign bit flipped
+		for (int i = 0; i < length; i++) bytes[i] = (byte) (bytes[i] ^ 0x80);
+		Arrays.sort(bytes);
+		for (int i = 0; i < length; i++) bytes[i] = (byte) (bytes[i] ^ 0x80);
+		bank.write(start, bytes, 0, length);
+		written(machine, start, length);
+		return 1 + length * (32 - Integer.numberOfLeadingZeros(length)) / 8;
+	}
+
+	// the selected bank, RAM or VRAM: the views of the I/O bank would bypass what its devices do on a load / store
+	private static MemoryBank bank(Machine machine) {
+		if (machine.MEMORY_MODE == IO) throw new IllegalStateException("works on the RAM or the VRAM, not in IO mode");
+		return machine.MEMORY[machine.MEMORY_MODE];
+	}
+
+	/**
+	 * call after writing into the machine's selected bank: cached code of the range is dropped (RAM), or its
+	 * lines are marked for the presenter (VRAM). Nothing for the I/O bank, intrinsics writing into it have to
+	 * drive its devices themselves
+	 */
+	public static void written(Machine machine, int address, int length) {
+		if (machine.MEMORY_MODE == RAM) machine.invalidateCode(address, length);
+		else if (machine.MEMORY_MODE == VRAM) machine.vramWritten(address, length);
+	}
+}
@@ -0,0 +1,1511 @@
+package cpu.test;
+
+import static cpu.test.Decoder.*;
+import static cpu.test.FL516CPU.*;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.EmptyStackException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import cpu.test.device.Console;
+import cpu.test.device.DeviceBus;
+import cpu.test.device.InputQueue;
+import cpu.test.device.InterruptController;
+import cpu.test.device.Timer;
+import cpu.test.device.TimerWheel;
+import cpu.test.jit.Jit;
+import cpu.test.memory.MemoryBank;
+import cpu.test.perf.Monitored;
+import cpu.test.perf.PerfCounters;
+import cpu.test.trace.TraceWriter;
+import cpu.test.video.DirtyLines;
+import cpu.test.video.PackedPixels;
+
+/**
+ * A single FL516 machine, every instance owns its own registers, memory banks and flags
+ * so that many guest programs can be executed in parallel inside one JVM
+ * (see {@link MachinePool})
+ */
+public class Machine implements Monitored, AutoCloseable {
+	/* CPU Internal parts (registers & memory & internal flags) */
+	// registers
+	public final char[]   REGS = new char[10]; // char = 2bytes = 16-bit registers
+	
+	// 16-bit addressable space (2 banks -- realistic)
+	// bank 0 is used for the entire CPU side of things
+	// bank 1 is used as video memory (VRAM)
+	// bank 2 is the I/O bus, where devices are mapped instead of memory (see DeviceBus)
+	// only LMH, LMB, SMH, SMB are affected by this
+	// the backend of each bank is pluggable (heap array or off-heap buffer, see MemoryBank)
+	public final MemoryBank[] MEMORY; // basically 65536 addressable bytes each
+	
+	// special CPU flags and program counter
+	/** True if the last CMP operation is zero */
+	public boolean  ZFL = false;   // zero flag (for CMP)
+	/** True if the last CMP operation is negative (negative = smaller, positive = greater) */
+	public boolean  CFL = false;   // carry flag (for unsigned)
+	/** True if the last artithmetic operation overflows (wraps around unsigned 16bit range) */
+	public boolean  OFL = false;   // overflow flag
+	/** The program counter (instruction pointer), point at what byte (ISA) to execute (multiples of 5) */
+	public int      PROGRAM_COUNTER = 0;
+	/** True if interrupts are delivered (EI / DI), cleared while a handler runs until its IRET */
+	public boolean  IE = false;
+	
+	// there're two "64KB" ram "chips", one for normal CPU memory and one for the
+	// "VPS" (video processing subroutine; which is just the CPU) memory (VRAM)
+	// 0 for working ram, 1 for vram, 2 for the I/O bank
+	public int 		MEMORY_MODE = RAM; // default memory mode is WORKING RAM, change to 1 for VRAM
+	
+	// if the CPU is temporaily stopped from executing tasks (see pause / resume)
+	public volatile boolean PAUSED = false;
+	// false once the CPU halted (HLT) or crashed (unknown opcode)
+	public volatile boolean RUNNING = false;
+	// if the CPU sleeps in a WAIT until an interrupt line is raised (its thread is parked meanwhile)
+	public volatile boolean WAITING = false;
+	// if the CPU spins in an idle loop (see IdleLoop), parked or skipped instead of executed
+	public volatile boolean IDLE = false;
+	
+	// pre-decoded instructions of the program area (see Decoder), one slot per 5-byte
+	// instruction, 0 = not decoded yet. codeLimit = the bytes of bank 0 covered by the cache
+	long[] decoded   = new long[0];
+	int    codeLimit = 0;
+	
+	// binary execution trace, null = off
+	TraceWriter tracer = null;
+	
+	// hot blocks compiled to JVM bytecode (see Jit), null = interpret everything.
+	// not used while tracing, compiled blocks don't record their instructions
+	Jit     jit        = null;
+	boolean jitEnabled = !Boolean.getBoolean("fl516.nojit");
+	
+	// superinstructions (see Decoder#fuse), and how many fused pairs were executed so far
+	boolean fusion = !Boolean.getBoolean("fl516.nofusion");
+	public long fusionsFired = 0;
+	
+	// idle loops (see IdleLoop): how long the machine was parked in them and how many of their
+	// instructions were skipped (counted as retired without being executed)
+	boolean idleDetection = !Boolean.getBoolean("fl516.noidle");
+	public long idleNanos   = 0;
+	public long idleSkipped = 0;
+	// how often an idle machine looks at its loop again, for memory writes that didn't come with a wake():
+	// after 1 ms, then backing off to every 64 ms
+	static final long IDLE_POLL_NANOS     = 1_000_000;
+	static final long IDLE_POLL_MAX_NANOS = 64_000_000;
+	
+	// run control (see pause, resume, step, runUntil): the thread inside runUntilHalt, parked while paused,
+	// the instructions to single step before it parks again and the address runUntil stops at (-1 = none)
+	private volatile Thread runner = null;
+	private final AtomicLong pendingSteps = new AtomicLong();
+	private volatile int stopAt = -1;
+	private boolean leavingStop = false; // just resumed, don't stop before the first instruction
+	
+	// breakpoints & watchpoints (see Breakpoints), null / empty = the unchecked path
+	private volatile Breakpoints breakpoints = null;
+	
+	// interrupt lines & vectors, the timer on line 0 (see cpu.test.device), and the flags of the interrupted
+	// code (lazy form) for IRET, a handler re-enabling interrupts (EI) may be interrupted but loses them
+	private final InterruptController interrupts = new InterruptController(() -> LockSupport.unpark(runner));
+	private final Timer timer = new Timer(interrupts, InterruptController.TIMER, TimerWheel.shared());
+	private int savedFlagResult = 1, savedOverflow = 0;
+	
+	// what the guest prints, mapped at Console.BASE of the I/O bank, flushed whenever the machine stops running
+	private final Console console = new Console();
+	// what the host feeds it, mapped at InputQueue.BASE, raises InterruptController.INPUT while it holds data
+	private final InputQueue input = new InputQueue(InputQueue.DEFAULT_CAPACITY, interrupts, InterruptController.INPUT);
+	
+	// the host calls of HCALL
+	Intrinsics intrinsics = Intrinsics.standard();
+	
+	// the VRAM lines written since a presenter last looked (see FramePresenter), null = nobody is looking
+	private volatile DirtyLines vramDirty = null;
+	
+	// paces the execution (see Clock), and how many instructions this machine executed so far
+	Clock clock = Clock.maxSpeed();
+	public long instructionsRetired = 0;
+	
+	// hardware-style performance counters (see PerfCounters), null = off
+	PerfCounters counters = Boolean.getBoolean("fl516.counters") ? new PerfCounters() : null;
+	
+	// the program image this machine was loaded with
+	public byte[] ROM = new byte[0];
+	
+	// where the emulator writes its logs & dumps (per machine, so pooled machines can be silenced)
+	PrintStream out = System.out;
+	PrintStream err = System.err;
+	
+	// for the java emulator
+	private static String[] registersName = {
+		"0 ", "1 ", "2 ", "3 ", "4 ", "5 ", "6 ", "7 ", "8 ", // 9 all purpose registers
+		"SP", // stack pointer
+	};
+	
+	/** a machine with the default memory backend (see MemoryBank#create) */
+	public Machine() {
+		this(MemoryBank.create(), MemoryBank.create());
+	}
+	
+	/** a machine on the given working RAM and VRAM banks */
+	public Machine(MemoryBank ram, MemoryBank vram) {
+		MEMORY = new MemoryBank[] { ram, vram, new DeviceBus()
+			.map(Console.BASE, Console.SIZE, console)
+			.map(InputQueue.BASE, InputQueue.SIZE, input) };
+	}
+	
+	public Machine(byte[] rom) {
+		this();
+		loadProgram(rom);
+	}
+	
+	public Machine(byte[] rom, MemoryBank ram, MemoryBank vram) {
+		this(ram, vram);
+		loadProgram(rom);
+	}
+	
+	/** redirect the emulator output (logs, dumps) of this machine */
+	public Machine setOutput(PrintStream out, PrintStream err) {
+		this.out = out;
+		this.err = err;
+		return this;
+	}
+	
+	/** replace the clock of this machine, must be done before it starts */
+	public Machine setClock(Clock clock) {
+		this.clock = clock;
+		return this;
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
+	
+	/** attach (or detach with null) a binary execution trace, the caller owns (and closes) the writer */
+	public Machine setTrace(TraceWriter tracer) {
+		this.tracer = tracer;
+		return this;
+	}
+	
+	/** turn the JIT on (default) or off for this machine */
+	public Machine setJit(boolean enabled) {
+		jitEnabled = enabled;
+		jit = enabled ? new Jit(this, codeLimit) : null;
+		return this;
+	}
+	
+	public Jit getJit() {
+		return jit;
+	}
+	
+	/** turn the performance counters on (fresh ones) or off, the compiled blocks are dropped to be recompiled with / without them */
+	@Override
+	public Machine setCounters(boolean enabled) {
+		counters = enabled ? new PerfCounters() : null;
+		if (jit != null) jit.clear();
+		return this;
+	}
+	
+	/** the performance counters, null if they are off */
+	@Override
+	public PerfCounters getCounters() {
+		return counters;
+	}
+	
+	@Override
+	public long getInstructionsRetired() {
+		return instructionsRetired;
+	}
+	
+	@Override
+	public int getProgramCounter() {
+		return PROGRAM_COUNTER;
+	}
+	
+	@Override
+	public boolean isBusy() {
+		return RUNNING && !PAUSED && !WAITING && !IDLE;
+	}
+	
+	/** the interrupt controller of this machine, e.g. to raise a line from the host */
+	public InterruptController interrupts() {
+		return interrupts;
+	}
+	
+	public Timer timer() {
+		return timer;
+	}
+	
+	/** the console device of this machine (System.out by default), to redirect or capture what the guest prints */
+	public Console console() {
+		return console;
+	}
+	
+	/** the input queue of this machine, {@link InputQueue#offer(int)} feeds the guest from a host thread */
+	public InputQueue input() {
+		return input;
+	}
+	
+	/** the I/O bank of this machine, to map devices into (before it runs) */
+	public DeviceBus devices() {
+		return (DeviceBus) MEMORY[IO];
+	}
+	
+	/** turn idle-loop detection on (default) or off, see {@link #wake()} */
+	public Machine setIdleDetection(boolean enabled) {
+		idleDetection = enabled;
+		return this;
+	}
+	
+	/** the intrinsics HCALL calls (see Intrinsics), the JVM-wide table by default */
+	public Machine setIntrinsics(Intrinsics intrinsics) {
+		this.intrinsics = intrinsics;
+		return this;
+	}
+	
+	public Intrinsics getIntrinsics() {
+		return intrinsics;
+	}
+	
+	/** turn instruction fusion on (default) or off, e.g. to debug the interpreter one instruction at a time */
+	public Machine setFusion(boolean enabled) {
+		fusion = enabled;
+		Arrays.fill(decoded, 0); // the cache may hold fused ops
+		return this;
+	}
+	
+	// flag bits of a trace record (flags in their lazy form, see execute)
+	private int traceFlags(int flagResult, int overflow) {
+		return (zero(flagResult) ? TraceWriter.FLAG_ZFL : 0)
+			| (carry(flagResult) ? TraceWriter.FLAG_CFL : 0)
+			| (overflow(overflow) ? TraceWriter.FLAG_OFL : 0)
+			| (MEMORY_MODE == VRAM ? TraceWriter.FLAG_VRAM : 0)
+			| (MEMORY_MODE == IO ? TraceWriter.FLAG_IO : 0);
+	}
+	
+	/*
+	 * Lazy flags: inside execute() the ALU doesn't compute ZFL/CFL/OFL, it keeps
+	 *  - flagResult: the raw int result of the last ADD/SUB/CMP, ZFL = low 16 bits are 0,
+	 *    CFL = any bit above them is set (a carry out of ADD, or a negative SUB/CMP result)
+	 *  - overflow: a word whose bit 15 is OFL ((a^r)&(b^r) for ADD, (a^b)&(a^r) for SUB)
+	 * and the booleans are only derived by the branches that read them, and written back to the
+	 * fields whenever someone else may look (end of the slice, compiled blocks)
+	 */
+	private static boolean zero(int flagResult) {
+		return (flagResult & 0xFFFF) == 0;
+	}
+	
+	private static boolean carry(int flagResult) {
+		return (flagResult & ~0xFFFF) != 0;
+	}
+	
+	private static boolean overflow(int overflow) {
+		return (overflow & 0x8000) != 0;
+	}
+	
+	// whether the conditional jump jcc (JEQ..JGE) is taken on these flags
+	static boolean taken(int jcc, int flagResult) {
+		boolean zero  = zero(flagResult);
+		boolean carry = carry(flagResult);
+		switch (jcc) {
+		case JEQ: return zero;
+		case JNE: return !zero;
+		case JLT: return !zero && carry;
+		case JLE: return zero || carry;
+		case JGT: return !zero && !carry;
+		default:  return zero || !carry; // JGE
+		}
+	}
+	
+	// the control transfer op just ran: conditional jumps, call depth
+	private static void countTransfer(PerfCounters counters, long op, int flagResult) {
+		switch (Decoder.dense(op)) {
+		case OP_CALL: counters.call(Decoder.opr1(op)); break;
+		case OP_RET: case OP_IRET: counters.ret(); break;
+		case OP_JEQ: case OP_JNE: case OP_JLT: case OP_JGT: case OP_JLE: case OP_JGE: case OP_CMP_JCC:
+			counters.branch(taken(Decoder.opcode(op), flagResult));
+			break;
+		}
+	}
+	
+	// a flagResult giving back these ZFL / CFL
+	static int flagResult(boolean zero, boolean carry) {
+		return zero ? (carry ? 0x10000 : 0) : (carry ? -1 : 1);
+	}
+	
+	/** push an unsigned 16bit integer to the stack (governed by the RSP) */
+	public void stackPush(char value16) {
+		// example
+		// 00 00 00
+		//       ^^ begins here
+		// the operation below writes to it
+		// 00 00 FF
+		//    ^^ written the low byte and move the pointer to the left (-1)
+		MEMORY[RAM].setByte(REGS[STACK_PTR_LOC]--, value16 & 0xFF); // low byte
+		
+		// the operation below writes to it
+		// 00 FF FF
+		// ^^ written the HIGH byte and move the pointer to the left, ready for the next one
+		MEMORY[RAM].setByte(REGS[STACK_PTR_LOC]--, value16 >> 8); // high byte
+		
+		Breakpoints breakpoints = this.breakpoints;
+		if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.WRITE, RAM, REGS[STACK_PTR_LOC] + 1, 2, value16);
+		
+		// the stack grew into the program (wow)
+		if (REGS[STACK_PTR_LOC] < codeLimit) {
+			invalidateCode(REGS[STACK_PTR_LOC] + 1);
+			invalidateCode(REGS[STACK_PTR_LOC] + 2);
+		}
+	}
+	
+	/** pop a value from a stack (moves RSP up) and return it */
+	public char stackPop() throws EmptyStackException {
+		// the minimum size of the stack (that is still pop-able) is 2 bytes, hence
+		// we check that the stack pointer is at least 2 bytes away from the bottom of the stack region.
+		// if the stack pointer exceeds the minimum valid address (i.e., STACK_REGION - 2), warn
+		// 00 00 00 CA FE
+		//       ^^ the pointer must be at least HERE to be able to pop
+		if (REGS[STACK_PTR_LOC] > STACK_REGION - Character.BYTES) {
+			// display a warning message if the stack pointer is too high, which could lead to an underflow condition when popping
+			err.println("Stack underflow! instruction not fulfilled");
+			if (counters != null) counters.stackUnderflows++;
+			throw new EmptyStackException();
+		}
+		// for example, we have this stack with ONE 2-bytes element
+		// 00 CA FE
+		// ^ current RSP is at "0"
+		// this increments by 1 and get CA, increment by one again and get FE, and then assign to the register
+		// after "POP", RSP is now at 2, which is the bottom of the stack
+		char value = (char) ((MEMORY[RAM].getByte(++REGS[STACK_PTR_LOC]) << 8) | MEMORY[RAM].getByte(++REGS[STACK_PTR_LOC]));
+		Breakpoints breakpoints = this.breakpoints;
+		if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.READ, RAM, REGS[STACK_PTR_LOC] - 1, 2, value);
+		return value;
+	}
+	
+	// initialize the stack register and start the processor
+	public void startProcessor() throws InterruptedException {
+		runUntilHalt();
+		
+		out.println("cpu stopped or crashed, heres da dump");
+		printRegisters(false);
+		printMemory(true);
+		out.println(clock.report());
+		if (fusion) out.println("[CPU | FUSION] " + fusionsFired + " fused instruction pairs executed");
+		if (counters != null) out.println(counters.report());
+		if (idleNanos > 0 || idleSkipped > 0) {
+			out.printf("[CPU | IDLE] %.3f ms parked in idle loops, %d idle instructions skipped%n", idleNanos / 1e6, idleSkipped);
+		}
+		if (console.failure() != null) err.println("[CPU | CONSOLE] guest output lost: " + console.failure());
+	}
+	
+	/**
+	 * Run from the current state (e.g. a restored {@link Snapshot}) for at most this many instructions,
+	 * at full speed and without re-initializing anything. Stops early on HLT, a crash or DBGP, a WAIT parks
+	 * the thread until an interrupt line is raised
+	 * @return how many instructions were executed
+	 */
+	public long runFor(long instructions) {
+		return runFor(instructions, Long.MAX_VALUE);
+	}
+	
+	/**
+	 * Same as {@link #runFor(long)}, but a WAIT parks the thread for at most maxWaitNanos: if no line was raised by
+	 * then it returns with {@link #WAITING} still set (calling it again goes on waiting)
+	 * @return how many instructions were executed
+	 */
+	public long runFor(long instructions, long maxWaitNanos) {
+		RUNNING = true;
+		IDLE = false;
+		runner = Thread.currentThread();
+		long done = 0, waited = 0;
+		try {
+			while (RUNNING && !PAUSED && done < instructions) {
+				long parked = waitForInterrupt(maxWaitNanos - waited);
+				if (parked >= 0) {
+					waited += parked;
+					if (Thread.currentThread().isInterrupted() || waited >= maxWaitNanos) break;
+					continue;
+				}
+				waited = 0;
+				int executed = execute((int) Math.min(instructions - done, Clock.MAX_SPEED_SLICE));
+				instructionsRetired += executed;
+				done += executed;
+				if (idleDetection && RUNNING && !PAUSED && !WAITING && done < instructions) {
+					done += skipIdle(instructions - done);
+				}
+			}
+		} finally {
+			runner = null;
+			console.flush();
+			if (!RUNNING) timer.stop();
+		}
+		return done;
+	}
+	
+	/** same as {@link #startProcessor()}, without the dumps (for pooled / benchmarked machines) */
+	public void runUntilHalt() throws InterruptedException {
+		// INIT stack to 65536
+		REGS[STACK_PTR_LOC] = (char) STACK_REGION;
+		RUNNING = true;
+		IDLE = false;
+		runner = Thread.currentThread();
+		
+		// start the CPU
+		clock.start();
+		try {
+			while (RUNNING) {
+				// if the CPU is paused, sleep until someone resumes or steps it (no CPU used meanwhile)
+				if (PAUSED) {
+					long steps = pendingSteps.getAndSet(0);
+					if (steps > 0) {
+						runSteps(steps);
+						continue;
+					}
+					console.flush();
+					LockSupport.park(this);
+					if (Thread.interrupted()) throw new InterruptedException();
+					continue;
+				}
+				if (waitForInterrupt(Long.MAX_VALUE) >= 0) {
+					if (Thread.interrupted()) throw new InterruptedException();
+					continue;
+				}
+				// ask the clock how many instructions we may execute right now (this is where it sleeps)
+				int executed = execute(clock.nextSlice());
+				instructionsRetired += executed;
+				clock.retire(executed);
+				// a whole slice went by, maybe in an idle loop (a stepped machine is left alone)
+				if (idleDetection && RUNNING && !PAUSED && !WAITING && clock.getMode() != Clock.Mode.SINGLE_STEP) {
+					parkIdle();
+				}
+			}
+		} finally {
+			runner = null;
+			clock.stop();
+			console.flush();
+			if (!RUNNING) timer.stop();
+		}
+	}
+	
+	// runUntilHalt, in an idle loop: park until it isn't idle anymore. A paced clock gets the instructions it
+	// would have executed meanwhile (whole turns of the loop)
+	private void parkIdle() throws InterruptedException {
+		int cycle = IdleLoop.cycle(this);
+		if (cycle == 0) return;
+		long parked = parkWhileIdle();
+		if (Thread.interrupted()) throw new InterruptedException();
+		if (clock.getMode() == Clock.Mode.TARGET_HZ && counters == null && tracer == null) {
+			long skipped = (long) (parked * (clock.getTargetHz() / 1e9)) / cycle * cycle;
+			instructionsRetired += skipped;
+			idleSkipped += skipped;
+			clock.retire((int) Math.min(skipped, Integer.MAX_VALUE));
+		}
+	}
+	
+	// park until something may have changed (an interrupt, wake(), a host command, an interrupt of the thread),
+	// looking at the loop again now and then for memory writes that came without a wake()
+	// @return the nanoseconds parked
+	private long parkWhileIdle() {
+		IDLE = true;
+		console.flush();
+		long start = System.nanoTime();
+		long poll  = IDLE_POLL_NANOS;
+		do {
+			LockSupport.parkNanos(this, poll);
+			poll = Math.min(poll * 2, IDLE_POLL_MAX_NANOS);
+		} while (!PAUSED && !Thread.currentThread().isInterrupted() && IdleLoop.cycle(this) != 0);
+		IDLE = false;
+		long parked = System.nanoTime() - start;
+		idleNanos += parked;
+		return parked;
+	}
+	
+	// runFor, in an idle loop: skip as many whole turns of it as the budget allows (the state after them is the
+	// same), or park until the timer fires if it's on and its interrupt can be taken (else the loop would never
+	// end, and neither would the parking). The performance counters and the trace would miss the skipped
+	// instructions, with them the loop is executed as usual
+	// @return the instructions skipped
+	private long skipIdle(long budget) {
+		int cycle = IdleLoop.cycle(this);
+		if (cycle == 0) return 0;
+		if (timer.period() != 0 && IE && (interrupts.vectored() & 1 << InterruptController.TIMER) != 0) {
+			parkWhileIdle();
+			return 0;
+		}
+		if (counters != null || tracer != null) return 0;
+		IDLE = true;
+		long skipped = budget / cycle * cycle;
+		instructionsRetired += skipped;
+		idleSkipped += skipped;
+		return skipped;
+	}
+	
+	/**
+	 * Tell an idle machine (see {@link #IDLE}) that something it may be polling changed, e.g. the host wrote into
+	 * its memory: it looks at its loop again right away instead of at its next poll
+	 */
+	public Machine wake() {
+		LockSupport.unpark(runner);
+		return this;
+	}
+	
+	// WAIT: park until an interrupt line is raised (or the host pauses / resumes / steps the machine), for at
+	// most nanos (Long.MAX_VALUE = no limit)
+	// @return the nanoseconds parked, -1 if it isn't waiting (anymore)
+	private long waitForInterrupt(long nanos) {
+		if (!WAITING || interrupts.pending() != 0) return -1;
+		console.flush();
+		long start = System.nanoTime();
+		if (nanos == Long.MAX_VALUE) LockSupport.park(this);
+		else LockSupport.parkNanos(this, nanos);
+		return System.nanoTime() - start;
+	}
+	
+	/**
+	 * (compiled code, machine thread) an interrupt would be taken right now: interrupts are enabled and a line
+	 * with a vector is raised
+	 */
+	public boolean interruptPending() {
+		return IE && interrupts.pending() != 0;
+	}
+	
+	// single step a paused machine (it stays paused)
+	private void runSteps(long steps) {
+		while (steps > 0 && RUNNING) {
+			int executed = execute((int) Math.min(steps, Clock.MAX_SPEED_SLICE));
+			instructionsRetired += executed;
+			clock.retire(executed);
+			steps -= executed;
+			if (executed == 0) break;
+		}
+	}
+	
+	/**
+	 * Ask the machine to pause, it stops at the end of its current slice (at most {@link Clock#MAX_SPEED_SLICE}
+	 * instructions later) and its thread parks until {@link #resume()} or {@link #step(long)}
+	 */
+	public Machine pause() {
+		PAUSED = true;
+		LockSupport.unpark(runner); // it may be parked in an idle loop
+		return this;
+	}
+	
+	/** continue a paused machine (after {@link #pause()}, DBGP, a breakpoint or {@link #runUntil(int)}) */
+	public Machine resume() {
+		if (PAUSED) leavingStop = true;
+		PAUSED = false;
+		LockSupport.unpark(runner);
+		return this;
+	}
+	
+	/** execute n more instructions on a paused machine, it stays paused afterwards */
+	public Machine step(long n) {
+		if (n > 0) {
+			if (PAUSED) leavingStop = true;
+			pendingSteps.addAndGet(n);
+			LockSupport.unpark(runner);
+		}
+		return this;
+	}
+	
+	/**
+	 * Continue a paused machine until it's about to execute the instruction at pc, then pause it again
+	 * (if the machine is at pc already, it runs until it gets back there). Compiled blocks are not used
+	 * until the stop is reached
+	 */
+	public Machine runUntil(int pc) {
+		stopAt = pc;
+		return resume();
+	}
+	
+	/** the breakpoints & watchpoints of this machine (created empty on first use) */
+	public synchronized Breakpoints breakpoints() {
+		if (breakpoints == null) breakpoints = new Breakpoints();
+		return breakpoints;
+	}
+	
+	// checked path: pause before the instruction at pc? (runUntil, breakpoints, a watchpoint hit by the previous one)
+	private boolean stop(int pc, int stopAt, Breakpoints breakpoints) {
+		if (breakpoints != null && breakpoints.stopRequested) return true;
+		if (leavingStop) {
+			leavingStop = false;
+			return false;
+		}
+		if (pc == stopAt) {
+			this.stopAt = -1;
+			PAUSED = true;
+			return true;
+		}
+		if (breakpoints != null && breakpoints.isBreakpoint(pc)) {
+			breakpoints.hit(new Breakpoints.Hit(Breakpoints.Kind.BREAKPOINT, pc, RAM, pc, 0));
+			PAUSED = true;
+			return true;
+		}
+		return false;
+	}
+	
+	// checked path: a load / store / stack access of the current instruction (PC already points at the next one)
+	private void watch(Breakpoints breakpoints, Breakpoints.Kind kind, int bank, int address, int size, int value) {
+		if (!breakpoints.watches(bank, address, size, kind == Breakpoints.Kind.WRITE)) return;
+		breakpoints.hit(new Breakpoints.Hit(kind, PROGRAM_COUNTER - 5, bank, address, value));
+		breakpoints.stopRequested = true;
+		PAUSED = true;
+	}
+	
+	/**
+	 * Execute at most {@code budget} instructions (one clock slice)
+	 * @return how many instructions were actually executed (less than budget if halted or paused)
+	 */
+	int execute(int budget) {
+		// still in a WAIT, until an interrupt line is raised
+		if (WAITING) {
+			if (interrupts.pending() == 0) return 0;
+			WAITING = false;
+		}
+		// runUntil / breakpoints / watchpoints: the checked path, interpreted one instruction at a time
+		int stopAt = this.stopAt;
+		Breakpoints breakpoints = this.breakpoints != null && !this.breakpoints.isEmpty() ? this.breakpoints : null;
+		boolean checked = stopAt >= 0 || breakpoints != null;
+		if (!checked) leavingStop = false;
+		Jit jit = tracer == null && !checked ? this.jit : null;
+		PerfCounters counters = this.counters;
+		int executed = 0, fused = 0;
+		// the flags, lazily (see zero / carry / overflow)
+		int flagResult = flagResult(ZFL, CFL);
+		int overflow   = OFL ? 0x8000 : 0;
+		try {
+			// interrupts are checked here and after every control transfer (a loop can't run long without one)
+			if (IE && interrupts.pending() != 0) interrupt(flagResult, overflow);
+			cpu_loop: for (; executed < budget; executed++) {
+				// fetch the instruction (5 bytes), the program area is decoded once and cached (see Decoder),
+				// anything outside of it (or misaligned) is decoded on the fly
+				int  pc   = PROGRAM_COUNTER;
+				if (checked && stop(pc, stopAt, breakpoints)) break cpu_loop;
+				int  slot = pc / 5;
+				long op;
+				if (slot * 5 == pc && pc < codeLimit) {
+					op = decoded[slot];
+					if (op == 0) op = decoded[slot] = fusion ? Decoder.decodeFused(MEMORY[RAM], pc, codeLimit) : Decoder.decode(MEMORY[RAM], pc);
+					// a fused pair retires 2 instructions and is traced as one, run the first one alone instead
+					if (Decoder.dense(op) >= OP_FUSED && (executed + 2 > budget || tracer != null || checked)) {
+						op = Decoder.decode(MEMORY[RAM], pc);
+					}
+				} else {
+					op = Decoder.decode(MEMORY[RAM], pc);
+				}
+				PROGRAM_COUNTER = pc + 5;
+				
+				int  opcode = Decoder.opcode(op);
+				char opr1   = Decoder.opr1(op);
+				char opr2   = Decoder.opr2(op);
+				
+				// execution trace (off by default), see TraceDump for the human-readable form
+				if (tracer != null) {
+					tracer.record(pc, opcode, traceFlags(flagResult, overflow), opr1, opr2);
+				}
+				if (counters != null) counters.count(op, MEMORY_MODE);
+				
+				// dispatch on the dense opcode index (jump table)
+				switch (Decoder.dense(op)) {
+				// CPU DEBUG
+				// DBGP [0 for hex, 1 for dec | REGS DUMP] [0 for hex, 1 for dec | MEMDMP]
+				case OP_DBGP: {
+					out.println("[CPU | DBG] Paused Execution for Debug! Dumping...");
+					printRegisters((int)opr1 == 0);
+					printMemory((int)opr2 == 0);
+					PAUSED = true;
+					executed++; // hand control back, the CPU does nothing until resumed
+					break cpu_loop;
+				}
+				
+				// NOP 00 00
+				// empty instruction, use to fill up the processor
+				case OP_NOP: {
+					continue;
+				}
+				
+				// switch memory addressing mode
+				case OP_VMS: case OP_WMS: {
+					// if VMS (Video memory switch), switch to VRAM addressing mode,
+					// to switch back, use WMS (Working memory switch)
+					MEMORY_MODE = opcode == VMS ? 1 : 0;
+					continue;
+				}
+				// IMS (I/O memory switch), loads & stores go to the devices (WMS to switch back)
+				case OP_IMS: {
+					MEMORY_MODE = IO;
+					continue;
+				}
+				
+				/** CPU SIGNALS (control flow) **/
+				// HLT 00, 00
+				// Stop the CPU from executing
+				case OP_HLT: {
+					out.println("[CPU | SIG] HLT opcode found! Halting");
+					RUNNING = false;
+					executed++; // HLT itself retires
+					break cpu_loop;
+				}
+				
+				// JMP [Program counter / address]
+				// jump unconditionally to an address in the program instructions space
+				case OP_JMP: {
+					if (opr1 % 5 != 0) {
+						err.println("[CPU | JMP WARN] Jump location is not a multiple of 5. Undefined behaviour may happen!");
+					}
+					PROGRAM_COUNTER = opr1;
+					break; // a basic block starts here (see below)
+				}
+				
+				// CMP [Reg 1] [Reg 2]
+				// compare register 1 and 2 by REG1 - REG2
+				// if the result is == 0, Z_FLAG is set
+				// if the result is negative, C_FLAG is set
+				case OP_CMP: {
+					// ZFL = result is 0, CFL = there's a borrow (result < 0), derived from the result when needed
+					flagResult = (REGS[opr1] & 0xFFFF) - (REGS[opr2] & 0xFFFF);
+					continue;
+				}
+				
+				// JEQ [Program counter] ; IF EQUAL
+				// jump to an address in the program instructions space IF
+				// and only if the Z_FLAG (ZERO) is set (result of cmp equals)
+				case OP_JEQ: {
+					// if there's a ZERO
+					if (zero(flagResult)) PROGRAM_COUNTER = opr1; // jump to an address
+					break;
+				}
+				
+				// JNE [Program counter] ; IF NOT EQUAL
+				// jump to an address in the program instructions space IF
+				// and only if the Z_FLAG (ZERO) is CLEAR (result of cmp equals)
+				case OP_JNE: {
+					// if there's NOT a ZERO
+					if (!zero(flagResult)) PROGRAM_COUNTER = opr1; // jump to an address
+					break;
+				}
+				
+				// JLT [Program counter] ; IF LESS THAN
+				// jump to an address in the program instructions space IF
+				// and only if the C_FLAG (CARRY) is set (result of cmp is: A less than B)
+				case OP_JLT: {
+					if (!zero(flagResult) && carry(flagResult)) PROGRAM_COUNTER = opr1;
+					break;
+				}
+				
+				// JLE [Program counter] ; IF LESS OR EQUAL
+				// jump to an address in the program instructions space IF
+				// and only if the C_FLAG (CARRY) is set (result of cmp is: A less than B)
+				// OR A equals B
+				case OP_JLE: {
+					if (zero(flagResult) || carry(flagResult)) PROGRAM_COUNTER = opr1;
+					break;
+				}
+				
+				// JGT [Program counter] ; IF GREATER THAN
+				// jump to an address in the program instructions space IF
+				// and only if the C_FLAG (CARRY) is CLEAR (result of cmp is: A greater than B)
+				case OP_JGT: {
+					if (!zero(flagResult) && !carry(flagResult)) PROGRAM_COUNTER = opr1;
+					break;
+				}
+				
+				// JGE [Program counter] ; IF GREATER OR EQUAL
+				// jump to an address in the program instructions space IF
+				// and only if the C_FLAG (CARRY) is CLEAR (result of cmp is: A greater than B)
+				// OR A equals B
+				case OP_JGE: {
+					if (zero(flagResult) || !carry(flagResult)) PROGRAM_COUNTER = opr1;
+					break;
+				}
+				
+				/** CALL AND RET (STACK BASED) **/
+				// CALL [Program counter / address]
+				// push the current instruction pointer to the stack and
+				// jump unconditionally to an address in the program instructions space
+				case OP_CALL: {
+					// push the current call address to the stack
+					stackPush((char)(PROGRAM_COUNTER % 65536));
+					// jump to the determined address
+					if (opr1 % 5 != 0) {
+						err.println("[CPU | CALL WARN] Function location is not a multiple of 5. Undefined behaviour may happen!");
+					}
+					PROGRAM_COUNTER = opr1;
+					break;
+				}
+				
+				// RET (Return from Function)
+				// pops the return address from the stack and jumps back to it
+				// this effectively resumes execution at the point after a CALL
+				case OP_RET: {
+					try {
+						// resumes execution
+						PROGRAM_COUNTER = stackPop();
+					} catch (EmptyStackException e) {}
+					break;
+				}
+				
+				/** INTERRUPTS **/
+				// EI / DI
+				// enable (or disable) the delivery of interrupts, a pending one is taken right after EI
+				case OP_EI: {
+					IE = true;
+					break;
+				}
+				case OP_DI: {
+					IE = false;
+					continue;
+				}
+				
+				// IRET
+				// return from an interrupt handler: pop the PC like RET, give the interrupted code its
+				// flags back and enable interrupts again
+				case OP_IRET: {
+					try {
+						PROGRAM_COUNTER = stackPop();
+					} catch (EmptyStackException e) {}
+					flagResult = savedFlagResult;
+					overflow   = savedOverflow;
+					IE = true;
+					break;
+				}
+				
+				// WAIT
+				// sleep until an interrupt line (with a vector) is raised, then go on with the handler
+				// (or with the next instruction if interrupts are disabled, the line stays pending).
+				// Waiting when nothing can raise a line (no vector, or only the timer's and it's stopped)
+				// would never end, that's a fault
+				case OP_WAIT: {
+					if (interrupts.pending() != 0) break;
+					int vectored = interrupts.vectored();
+					if ((vectored & ~(1 << InterruptController.TIMER)) == 0 && (vectored == 0 || timer.period() == 0)) {
+						err.printf("[CPU | FAULT] WAIT at %04X with no interrupt line that can wake it up\n", pc);
+						RUNNING = false;
+						break cpu_loop;
+					}
+					WAITING = true;
+					executed++; // WAIT itself retires, the host thread parks (see waitForInterrupt)
+					break cpu_loop;
+				}
+				
+				// IVEC [line], [address]
+				// the handler of an interrupt line, lines without one are never delivered
+				case OP_IVEC: {
+					if (!interrupts.vector(opr1, opr2)) {
+						err.println("[CPU | IVEC WARN] No such interrupt line: " + (int) opr1);
+					}
+					continue;
+				}
+				
+				// TMR REG
+				// program the timer: raise line 0 every REG milliseconds (from now on), 0 stops it
+				case OP_TMR: {
+					timer.program(REGS[opr1]);
+					continue;
+				}
+				
+				// HCALL [intrinsic number]
+				// run the host's Java code for it (see Intrinsics), it retires as many instructions as it costs
+				case OP_HCALL: {
+					Intrinsics.Intrinsic intrinsic = intrinsics.get(opr1);
+					if (intrinsic == null) {
+						err.printf("[CPU | FAULT] No intrinsic for HCALL %d\n", (int) opr1);
+						RUNNING = false;
+						break cpu_loop;
+					}
+					long cost;
+					try {
+						cost = intrinsic.call(this);
+					} catch (IllegalStateException e) {
+						err.printf("[CPU | FAULT] HCALL %d (%s) at %04X: %s\n", (int) opr1, intrinsics.name(opr1), pc, e.getMessage());
+						RUNNING = false;
+						break cpu_loop;
+					}
+					executed += (int) Math.min(Math.max(cost, 1) - 1, Integer.MAX_VALUE - executed - 1);
+					continue;
+				}
+				
+				/** CPU REGISTERS DATA MANIPULATION **/
+				// MOV REG_A, REG_B
+				// PROGRAM COUNTER CAN BE ACCESSED VIA: MOV REG_A 0xFF
+				// REGA = REGB
+				case OP_MOV: {
+					// move stuff from register B to A
+					REGS[opr1] = opr2 == 0xFF ? (char)(PROGRAM_COUNTER % 65536) : REGS[opr2];
+					continue;
+				}
+				
+				// LDI REG_INDEX, IMMEDIATE VALUE
+				// load immediate value to a register
+				// REGISTER = value
+				case OP_LDI: {
+					// assign immediate value (op1) to register[op2]
+					REGS[opr1] = opr2;
+					continue;
+				}
+				
+				/** CPU MEMORY (MMU) DATA MANIPULATION **/
+				// LMH REG_A, REG_B
+				// Loads a 16-bit value from the memory address stored in a REG_B register into REG_A
+				// This was a mistake
+				case OP_LMH: {
+					// MEMORY[REG[opr2]] = MSB, MEMORY[REG[opr2] + 1] = LSB (big-endian model)
+					// REG[opr1] = (MEMORY[REG[opr2]] << 8) | MEMORY[REG[opr2]+1]
+					char address = REGS[opr2];
+					REGS[opr1] = (char) MEMORY[MEMORY_MODE].getHalf(address);
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.READ, MEMORY_MODE, address, 2, REGS[opr1]);
+					continue;
+				}
+				
+				// LMB REG_A, REG_B
+				// Loads a 8-bit value from the memory address stored in a REG_B register into REG_A
+				// This was a mistake
+				case OP_LMB: {
+					// REG[opr1] = (MEMORY[REG[opr2]] & 0xFF)
+					char address = REGS[opr2];
+					REGS[opr1] = (char) MEMORY[MEMORY_MODE].getByte(address);
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.READ, MEMORY_MODE, address, 1, REGS[opr1]);
+					continue;
+				}
+				
+				// SMH REG_A, REG_B
+				// Stores a 16-bit value from register B into the memory address stored in register A
+				// basically MEMORY[register value A] (2x) = MEMORY[register value B)
+				case OP_SMH: {
+					char value = REGS[opr2];
+					MEMORY[MEMORY_MODE].setHalf(REGS[opr1], value); // high byte first
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.WRITE, MEMORY_MODE, REGS[opr1], 2, value);
+					// self-modifying code, the cached instructions are stale now
+					if (MEMORY_MODE == RAM && REGS[opr1] < codeLimit) {
+						invalidateCode(REGS[opr1]);
+						invalidateCode(REGS[opr1] + 1);
+					} else if (MEMORY_MODE == VRAM) {
+						vramWritten(REGS[opr1], 2);
+					}
+					continue;
+				}
+
+				// SMH REG_A, REG_B
+				// Stores a 8-bit value from register B into the memory address stored in register A
+				// basically MEMORY[register value A] = MEMORY[register value B)
+				case OP_SMB: {
+					MEMORY[MEMORY_MODE].setByte(REGS[opr1], REGS[opr2] & 0xFF);
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.WRITE, MEMORY_MODE, REGS[opr1], 1, REGS[opr2] & 0xFF);
+					if (MEMORY_MODE == RAM && REGS[opr1] < codeLimit) invalidateCode(REGS[opr1]);
+					else if (MEMORY_MODE == VRAM) vramWritten(REGS[opr1], 1);
+					continue;
+				}
+				
+				// MEMCPY [rDst], [rSrc, rLength] / MEMCPYX (from the other bank) / MEMSET [rDst], [rValue, rLength]
+				// one bulk operation of the bank, a range stops at the end of the bank. They retire about one
+				// instruction per 8 bytes (a loop would take 4 per byte). MEMCPYX only copies between the RAM and
+				// the VRAM, in IO mode it faults
+				case OP_MEMCPY: case OP_MEMSET: case OP_MEMCPYX: {
+					if (opcode == MEMCPYX && MEMORY_MODE == IO) {
+						err.printf("[CPU | FAULT] MEMCPYX at %04X in IO mode (it copies between RAM and VRAM)\n", pc);
+						RUNNING = false;
+						break cpu_loop;
+					}
+					int dst    = REGS[opr1];
+					int src    = REGS[opr2 >> 8];
+					int length = Math.min(REGS[opr2 & 0xFF], MemoryBank.SIZE - dst);
+					MemoryBank to = MEMORY[MEMORY_MODE];
+					if (opcode == MEMSET) {
+						to.fill(dst, length, src);
+					} else {
+						int source = opcode == MEMCPY ? MEMORY_MODE : MEMORY_MODE == RAM ? VRAM : RAM;
+						MemoryBank from = MEMORY[source];
+						length = Math.min(length, MemoryBank.SIZE - src);
+						from.copy(src, to, dst, length);
+						if (breakpoints != null && length > 0) watch(breakpoints, Breakpoints.Kind.READ, source, src, length, length);
+					}
+					if (breakpoints != null && length > 0) watch(breakpoints, Breakpoints.Kind.WRITE, MEMORY_MODE, dst, length, length);
+					if (MEMORY_MODE == RAM && dst < codeLimit) invalidateCode(dst, length);
+					else if (MEMORY_MODE == VRAM) vramWritten(dst, length);
+					executed += length / 8;
+					continue;
+				}
+
+				// PSET [rIndex], [rColour] / PGET [rDst], [rIndex] / PFILL [rIndex], [rColour, rCount]
+				// packed 6-bit pixels (see PackedPixels), always on the VRAM: no VMS / WMS around them.
+				// PFILL retires about one instruction per 8 bytes, like MEMSET
+				case OP_PSET: {
+					int index = REGS[opr1];
+					PackedPixels.set(MEMORY[VRAM], index, REGS[opr2]);
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.WRITE, VRAM, PackedPixels.address(index), PackedPixels.length(index, 1), REGS[opr2] & 0x3F);
+					vramWritten(PackedPixels.address(index), PackedPixels.length(index, 1));
+					continue;
+				}
+				case OP_PGET: {
+					int index = REGS[opr2];
+					REGS[opr1] = (char) PackedPixels.get(MEMORY[VRAM], index);
+					if (breakpoints != null) watch(breakpoints, Breakpoints.Kind.READ, VRAM, PackedPixels.address(index), PackedPixels.length(index, 1), REGS[opr1]);
+					continue;
+				}
+				case OP_PFILL: {
+					int index = REGS[opr1];
+					int count = PackedPixels.fill(MEMORY[VRAM], index, REGS[opr2 & 0xFF], REGS[opr2 >> 8]);
+					int length = PackedPixels.length(index, count);
+					if (breakpoints != null && length > 0) watch(breakpoints, Breakpoints.Kind.WRITE, VRAM, PackedPixels.address(index), length, count);
+					vramWritten(PackedPixels.address(index), length);
+					executed += length / 8;
+					continue;
+				}
+
+				/**** ARITHMETIC OPERATIONS ****/
+				// ADD AX, BX is ADD AX TO BX AND PUT TO AX
+				
+				// ADD REG_INDEX, REG_2_INDEX
+				// ADDI REG_INDEX, IMMEDIATE_VALUE
+				// add value from reg 1 to reg2 (or IV)
+				case OP_ADD: case OP_ADDI: {
+					int value1 = REGS[opr1] & 0xFFFF;
+					int value2 = (opcode == ADDI ? opr2 : REGS[opr2]) & 0xFFFF;
+					int result = value1 + value2;
+					
+					// store only the lower 16 bits
+					REGS[opr1] = (char) (result & 0xFFFF);
+					
+					// processor flags (lazy), ZFL = the low 16 bits are 0, CFL = result > 0xFFFF (carry)
+					flagResult = result;
+					// signed overflow: both operands have the same sign and the result has the other one (bit 15)
+					overflow = (value1 ^ result) & (value2 ^ result);
+					continue;
+				}
+				
+				// SUB REG_INDEX, REG_2_INDEX
+				// SUB REG_INDEX, IMMEDIATE_VALUE
+				// subtract VALUE of reg1 from reg2 (or IV)
+				case OP_SUB: case OP_SUBI: {
+					int value1 = REGS[opr1] & 0xFFFF;
+					int value2 = (opcode == SUBI ? opr2 : REGS[opr2]) & 0xFFFF;
+					int result = value1 - value2;
+					// store only the lower 16 bits
+					REGS[opr1] = (char) (result & 0xFFFF);
+					// processor flags (lazy), ZFL = the low 16 bits are 0, CFL = result < 0 (borrow)
+					flagResult = result;
+					// signed overflow: the operands have different signs and the result isn't the first one's (bit 15)
+					overflow = (value1 ^ value2) & (value1 ^ result);
+					continue;
+				}
+				
+				// MUL REG_INDEX, REG_2_INDEX
+				// MUL REG_INDEX, IMMEDIATE_VALUE
+				// multiply VALUE of reg1 from reg2 (or IV)
+				case OP_MUL: case OP_MULI: {
+					int value1 = REGS[opr1] & 0xFFFF;
+					int value2 = (opcode == MULI ? opr2 : REGS[opr2]) & 0xFFFF;
+					int result = value1 * value2;
+					REGS[opr1] = (char) (result & 0xFFFF);
+					// overflow occurs if result is greater than 16 bits (more than 0xFFFF)
+					overflow = result > 0xFFFF ? 0x8000 : 0;
+					continue;
+				}
+				
+				// DIV  REG_INDEX, REG_2_INDEX
+				// DIVI REG_INDEX, IMMEDIATE_VALUE
+				// divide register 1 by register 2, store quotient in reg 1 (no remainder, use MOD isntead)
+				// reg1 /= reg2 (int)
+				case OP_DIV: case OP_DIVI: {
+					int value1 = REGS[opr1] & 0xFFFF;
+					int value2 = (opcode == DIVI ? opr2 : REGS[opr2]) & 0xFFFF;
+					// handle division by zero
+					if (value2 == 0) {
+						// no wtf
+						overflow = 0x8000; // OFL
+						continue;
+					}
+					int quotient = value1 / value2;
+					REGS[opr1] 	 = (char) (quotient & 0xFFFF);
+					continue;
+				}
+				
+				// MOD  REG_INDEX, REG_2_INDEX
+				// MODI REG_INDEX, IMMEDIATE_VALUE
+				// modulate register 1 by register 2, store in reg 1
+				// reg1 %= reg2 (int)
+				case OP_MOD: case OP_MODI: {
+					int value1 = REGS[opr1] & 0xFFFF;
+					int value2 = (opcode == MODI ? opr2 : REGS[opr2]) & 0xFFFF;
+					// handle division by zero
+					if (value2 == 0) {
+						// no wtf
+						overflow = 0x8000; // OFL
+						continue;
+					}
+					int remainder = value1 % value2;
+					REGS[opr1] 	  = (char) (remainder & 0xFFFF);
+					continue;
+				}
+				
+				/**** BITWISE OPERATION, ASSIGN RESULT TO THE FIRST REGISTER ****/
+				// AX = AX & BX
+				
+				// AND REG_INDEX, REG_2_INDEX
+				// AND REG_INDEX, IMMEDIATE_VALUE
+				// basically REG_1 = REG_1 & REG_2 
+				case OP_AND: case OP_ANDI: {
+					REGS[opr1] &= (opcode == ANDI ? opr2 : REGS[opr2]);
+					continue;
+				}
+				
+				// OR REG_INDEX, REG_2_INDEX
+				// OR REG_INDEX, IMMEDIATE_VALUE
+				// basically REG_1 = REG_1 | REG_2 
+				case OP_OR: case OP_ORI: {
+					REGS[opr1] |= (opcode == ORI ? opr2 : REGS[opr2]);
+					continue;
+				}
+				
+				// XOR REG_INDEX, REG_2_INDEX
+				// XOR REG_INDEX, IMMEDIATE_VALUE
+				// basically REG_2 = REG_1 ^ REG_2
+				case OP_XOR: case OP_XORI: {
+					REGS[opr1] ^= (opcode == XORI ? opr2 : REGS[opr2]);
+					continue;
+				}
+				
+				// bitshift (arithmetic)
+				// SHR  REG_INDEX, REG_2_INDEX
+				// SHRI REG_INDEX, IMMEDIATE VALUE
+				// reg1 = reg1 >> reg2 (or IV)
+				case OP_SHR: case OP_SHRI: {
+					REGS[opr1] >>= (opcode == SHRI ? opr2 : REGS[opr2]);
+					continue;
+				}
+				
+				// SHL  REG_INDEX, REG_2_INDEX
+				// SHLI REG_INDEX, IMMEDIATE VALUE
+				// reg1 = reg1 << reg2 (or IV)
+				case OP_SHL: case OP_SHLI: {
+					REGS[opr1] <<= (opcode == SHLI ? opr2 : REGS[opr2]);
+					continue;
+				}
+				
+				// NOT REG_INDEX
+				// basically REG_1 = ~REG_1
+				case OP_NOT: {
+					REGS[opr1] = (char) ~REGS[opr1];
+					continue;
+				}
+				
+				/**** STACK OPERATIONS ****/
+				// PUSH  REGISTER_INDEX
+				// IPUSH IMMEDIATE_VALUE
+				// push a value to the stack (decrementing the stack pointer)
+				case OP_PUSH: case OP_IPUSH: {
+					char value16 = (opcode == IPUSH ? opr1 : REGS[opr1]);
+					// push a value from either a register or immediate value to the stack
+					stackPush(value16);
+					continue;
+				}
+				
+				// POP REGISTER_INDEX
+				// POP from the stack to register index (incrementing the stack pointer)
+				case OP_POP: {
+					try {
+						REGS[opr1] = stackPop(); // pop out of the stack
+					} catch (EmptyStackException ignored) {}
+					continue;
+				}
+				
+				/**** FUSED PAIRS (see Decoder#fuse), same state as running both instructions ****/
+				// CMP rA, rB + Jcc target
+				case OP_CMP_JCC: {
+					flagResult = REGS[opr1 >> 8] - REGS[opr1 & 0xFF];
+					PROGRAM_COUNTER = taken(opcode, flagResult) ? opr2 : pc + 10;
+					executed++;
+					fused++;
+					break;
+				}
+				
+				// ADDI rX, imm + JMP target (loop back-edges)
+				case OP_ADDI_JMP: {
+					int value1 = REGS[opcode];
+					int result = value1 + opr1;
+					REGS[opcode] = (char) result;
+					flagResult = result;
+					overflow   = (value1 ^ result) & (opr1 ^ result);
+					PROGRAM_COUNTER = opr2;
+					executed++;
+					fused++;
+					break;
+				}
+				
+				// LDI rX, address + LMH/LMB rY, rX
+				case OP_LDI_LMH: {
+					REGS[opr1 >> 8] = opr2;
+					REGS[opr1 & 0xFF] = (char) MEMORY[MEMORY_MODE].getHalf(opr2);
+					PROGRAM_COUNTER = pc + 10;
+					executed++;
+					fused++;
+					continue;
+				}
+				case OP_LDI_LMB: {
+					REGS[opr1 >> 8] = opr2;
+					REGS[opr1 & 0xFF] = (char) MEMORY[MEMORY_MODE].getByte(opr2);
+					PROGRAM_COUNTER = pc + 10;
+					executed++;
+					fused++;
+					continue;
+				}
+				
+				default:
+					err.printf("[CPU | FAULT] Unknown OPCODE: %02X\n", opcode);
+					RUNNING = false;
+					break cpu_loop;
+				}
+				
+				// only control transfers get here, everything else continues: a basic block starts at the new
+				// PC, run its compiled version if it's hot (the -1 is this instruction)
+				if (counters != null) countTransfer(counters, op, flagResult);
+				if (IE && interrupts.pending() != 0) interrupt(flagResult, overflow);
+				if (jit != null) {
+					// compiled blocks work on the flag fields
+					ZFL = zero(flagResult);
+					CFL = carry(flagResult);
+					OFL = overflow(overflow);
+					executed  += jit.run(budget - executed - 1);
+					flagResult = flagResult(ZFL, CFL);
+					overflow   = OFL ? 0x8000 : 0;
+					// compiled code leaves as soon as a line is raised, the handler runs next
+					if (IE && interrupts.pending() != 0) interrupt(flagResult, overflow);
+				}
+			}
+		} finally {
+			if (breakpoints != null) breakpoints.stopRequested = false; // PAUSED is set already
+			// the slice is over (or the machine crashed), the flags are architectural state again
+			ZFL = zero(flagResult);
+			CFL = carry(flagResult);
+			OFL = overflow(overflow);
+			fusionsFired += fused;
+		}
+		return executed;
+	}
+	
+	// deliver the lowest pending interrupt: push the PC like a CALL, keep the flags for IRET and
+	// jump to the line's vector, with interrupts disabled until the handler returns
+	private void interrupt(int flagResult, int overflow) {
+		int line = interrupts.take();
+		if (line < 0) return;
+		savedFlagResult = flagResult;
+		savedOverflow   = overflow;
+		IE = false;
+		stackPush((char) PROGRAM_COUNTER);
+		PROGRAM_COUNTER = interrupts.vector(line);
+		if (counters != null) {
+			counters.interrupts++;
+			counters.call(PROGRAM_COUNTER);
+		}
+	}
+	
+	// test
+	
+	public void printRegisters(boolean hex) {
+		out.println("\n[CPU | DUMP] CPU Registers (RAX = 00, RBX = 01, ...)");
+		out.print("|");
+		for (int i = 0; i < REGS.length; i++) {
+			out.print(" R" + registersName[i] + "  |");
+		}
+		
+		out.println();
+		out.print("|------+");
+		out.print("------+".repeat(REGS.length - 2));
+		out.print("------|");
+		out.print("\n|");
+		
+		for (int i = 0; i < REGS.length; i++) {
+			out.printf(hex ? " %04X |" : " %03d |", (int) REGS[i]);
+		}
+		out.println("\n");
+	}
+	
+	@SuppressWarnings("resource")
+	public void printMemory(boolean hex) {
+		out.println("First 512 bytes of the program (CPU)");
+		for (int i = 0; i < 512; i++) {
+			if (i % 16 == 0) out.println();
+			
+			boolean is_program = i < ROM.length;
+			var std = is_program ? err : out;
+			
+			std.printf(hex ? "%02X " : "%06d ", (byte) MEMORY[RAM].getByte(i));
+		}
+		out.println();
+		out.println("\nFirst 512 bytes of the VRAM (VPS)");
+		for (int i = 0; i < 512; i++) {
+			if (i % 16 == 0) out.println();
+			out.printf(hex ? "%02X " : "%06d ", (byte) MEMORY[VRAM].getByte(i));
+		}
+		out.println();
+	}
+	
+	public void copy_rom_to_ram() {
+		MEMORY[RAM].loadProgram(ROM);
+	}
+	
+	/** load a program image into this machine (ROM) and copy it into the working RAM */
+	public void loadProgram(byte[] rom) {
+		ROM = rom;
+		copy_rom_to_ram();
+		loadCode(rom);
+		REGS[STACK_PTR_LOC] = (char) STACK_REGION;
+	}
+	
+	// size the decode cache & the JIT for the program area of this ROM
+	private void loadCode(byte[] rom) {
+		ROM       = rom;
+		decoded   = new long[(rom.length + 4) / 5];
+		codeLimit = decoded.length * 5;
+		jit       = jitEnabled ? new Jit(this, codeLimit) : null;
+	}
+	
+	/**
+	 * Checkpoint this machine (registers, flags, PC, memory mode, both banks), see {@link Snapshot}.
+	 * Must not be called while the machine is executing on another thread.
+	 * On paged memory this only copies the page tables, other banks are copied once into pages
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+	
+	/**
+	 * Put this machine back into the state of a snapshot (of any machine), its memory becomes a
+	 * copy-on-write copy of the snapshot's pages. Must not be called while the machine is executing
+	 */
+	public Machine restore(Snapshot snapshot) {
+		MEMORY[RAM]  = snapshot.bank(RAM);
+		MEMORY[VRAM] = snapshot.bank(VRAM);
+		if (vramDirty != null) vramDirty.markAll();
+		restoreState(snapshot);
+		return this;
+	}
+	
+	/**
+	 * A copy of this machine that shares its memory copy-on-write, with the same output, JIT, fusion and counters settings
+	 * (the clock is not copied, a fork runs at full speed, its counters start at 0). Same rules as {@link #snapshot()}
+	 */
+	public Machine fork() {
+		Machine child = snapshot().newMachine().setOutput(out, err).setFusion(fusion).setIntrinsics(intrinsics);
+		if (child.jitEnabled != jitEnabled) child.setJit(jitEnabled);
+		if ((child.counters != null) != (counters != null)) child.setCounters(counters != null);
+		return child;
+	}
+	
+	// everything but the banks
+	void restoreState(Snapshot snapshot) {
+		System.arraycopy(snapshot.regs, 0, REGS, 0, REGS.length);
+		ZFL = snapshot.zfl;
+		CFL = snapshot.cfl;
+		OFL = snapshot.ofl;
+		PROGRAM_COUNTER = snapshot.programCounter;
+		MEMORY_MODE = snapshot.memoryMode;
+		PAUSED = false;
+		RUNNING = false;
+		IDLE = false;
+		stopAt = -1;
+		pendingSteps.set(0);
+		// snapshots don't hold the interrupt state, a restored machine starts without any
+		resetInterrupts();
+		// the code in memory may differ from what was decoded / compiled
+		if (snapshot.rom != ROM) {
+			loadCode(snapshot.rom);
+		} else {
+			Arrays.fill(decoded, 0);
+			if (jit != null) jit.clear();
+		}
+	}
+	
+	/**
+	 * Let go of this machine: its timer is stopped and its interrupts are cleared. A running timer keeps its
+	 * machine reachable from the shared timer wheel, and keeps it firing, after the run that programmed it
+	 * returned (runFor stops on its budget, in an idle loop or a WAIT with the timer still on), so whoever drops a
+	 * machine that may have used TMR calls this. Only once it stopped executing; it can run again afterwards
+	 * (after a reset() or restore(), its program would program the timer again)
+	 */
+	@Override
+	public void close() {
+		RUNNING = false;
+		resetInterrupts();
+	}
+	
+	// interrupts off, no vectors, nothing pending (but input that is waiting), timer stopped
+	private void resetInterrupts() {
+		IE = false;
+		WAITING = false;
+		timer.stop();
+		interrupts.reset();
+		if (input.available() > 0) interrupts.raise(InterruptController.INPUT);
+		savedFlagResult = 1;
+		savedOverflow   = 0;
+	}
+	
+	/** size of the program area (the part of bank 0 holding code that may be cached / compiled) */
+	public int getCodeLimit() {
+		return codeLimit;
+	}
+	
+	/** forget the cached (decoded) instruction covering this address of bank 0 */
+	public void invalidateCode(int address) {
+		if (address >= 0 && address < codeLimit) {
+			decoded[address / 5] = 0;
+			// the previous slot may hold a pair fused with this instruction
+			if (address >= 5) decoded[address / 5 - 1] = 0;
+		}
+		if (jit != null) jit.invalidate(address);
+	}
+	
+	/** forget the cached (decoded) instructions covering length bytes of bank 0 from address */
+	public void invalidateCode(int address, int length) {
+		int end = Math.min(address + length, codeLimit);
+		for (int i = Math.max(address, 0); i < end; i++) invalidateCode(i);
+	}
+	
+	/**
+	 * Track the VRAM lines this machine writes from now on (stores in VRAM mode, pixel and bulk instructions,
+	 * intrinsics), for a presenter to convert only those (see FramePresenter). Every line starts dirty.
+	 * The host writing into the VRAM itself should mark what it wrote
+	 */
+	public DirtyLines trackVram() {
+		DirtyLines dirty = vramDirty;
+		if (dirty == null) vramDirty = dirty = new DirtyLines();
+		return dirty;
+	}
+	
+	/** the dirty lines of the VRAM, null if they aren't tracked (see {@link #trackVram()}) */
+	public DirtyLines getVramDirty() {
+		return vramDirty;
+	}
+	
+	/** length bytes of the VRAM from address were written: mark their lines if they are tracked */
+	public void vramWritten(int address, int length) {
+		DirtyLines dirty = vramDirty;
+		if (dirty != null) dirty.mark(address, length);
+	}
+	
+	/**
+	 * Put the machine back to its power-on state with the same program, so it can be run again.
+	 * Registers, flags and modes are cleared (the stack pointer goes back to the top of the stack) and the
+	 * ROM is copied again, the rest of the memory is left as is
+	 */
+	public void reset() {
+		Arrays.fill(REGS, (char) 0);
+		REGS[STACK_PTR_LOC] = (char) STACK_REGION;
+		ZFL = CFL = OFL = false;
+		PROGRAM_COUNTER = 0;
+		MEMORY_MODE = RAM;
+		PAUSED = false;
+		RUNNING = false;
+		IDLE = false;
+		stopAt = -1;
+		pendingSteps.set(0);
+		resetInterrupts();
+		input.clear();
+		instructionsRetired = 0;
+		fusionsFired = 0;
+		idleNanos = idleSkipped = 0;
+		if (counters != null) counters.reset();
+		copy_rom_to_ram();
+		Arrays.fill(decoded, 0);
+		if (jit != null) jit.reset();
+	}
+}
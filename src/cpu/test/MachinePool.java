@@ -0,0 +1,77 @@
+package cpu.test;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of worker threads, each worker runs one FL516 machine at a time until it halts.
+ * Machines never share state, so N workers = N guest programs running at once
+ */
+public class MachinePool implements AutoCloseable {
+	// shared sink for pooled machines, nobody wants thousands of dumps in the console
+	static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+	private final ExecutorService workers;
+	private final int threads;
+
+	/** one worker per available core */
+	public MachinePool() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public MachinePool(int threads) {
+		if (threads < 1) throw new IllegalArgumentException("A pool needs at least one worker thread!");
+		this.threads = threads;
+		this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger counter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread worker = new Thread(task, "fl516-worker-" + counter.incrementAndGet());
+				worker.setDaemon(true);
+				return worker;
+			}
+		});
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Load the given program image into a fresh (silenced) machine and run it on the pool
+	 * @param rom the assembled program (.o)
+	 * @return the machine after it stopped (halted or crashed)
+	 */
+	public Future<Machine> submit(byte[] rom) {
+		return submit(new Machine(rom).setOutput(DISCARD, DISCARD));
+	}
+
+	/**
+	 * Run an already loaded machine on the pool
+	 * @return the same machine after it stopped (halted or crashed)
+	 */
+	public Future<Machine> submit(Machine machine) {
+		return workers.submit(() -> {
+			machine.runUntilHalt();
+			return machine;
+		});
+	}
+
+	/** stop taking jobs and wait for the running ones, an interrupt stops the waiting (and stays set) */
+	@Override
+	public void close() {
+		workers.shutdown();
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
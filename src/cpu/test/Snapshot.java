@@ -0,0 +1,165 @@
+package cpu.test;
+
+import static cpu.test.FL516CPU.*;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import cpu.test.memory.MemoryBank;
+import cpu.test.memory.PagedBank;
+
+/**
+ * A frozen copy of a machine's architectural state: registers, flags, program counter, memory mode,
+ * both memory banks and the program it was loaded with.
+ * <p>
+ * The banks are kept as {@link PagedBank}s, so taking a snapshot of a machine on paged memory, restoring one
+ * or starting a new machine from one only copies page tables; the pages themselves are copied on the
+ * first write. A snapshot is immutable and can be restored from any number of threads at once.
+ * <p>
+ * File layout (big-endian): header [MAGIC:4][VERSION:2][FLAGS:1][MEMORY_MODE:1][PC:4][REGS:2 x 10]
+ * [ROM_LENGTH:4][ROM], padded to a page; then per bank (RAM, VRAM) a bitmap of the non-zero pages
+ * (PAGES bits) padded to a page, followed by those pages. Zero pages are not stored and every stored
+ * page is page-aligned in the file, so {@link #read(Path)} maps the file and copies pages straight out of it
+ */
+public final class Snapshot {
+	public static final int MAGIC   = 0x464C3553; // "FL5S"
+	public static final int VERSION = 1;
+
+	// flag bits of the header
+	static final int FLAG_ZFL = 1;
+	static final int FLAG_CFL = 1 << 1;
+	static final int FLAG_OFL = 1 << 2;
+
+	private static final int PAGE   = PagedBank.PAGE_SIZE;
+	private static final int BITMAP = PagedBank.PAGES / 8;
+
+	final char[]      regs;
+	final boolean     zfl, cfl, ofl;
+	final int         programCounter;
+	final int         memoryMode;
+	final byte[]      rom;
+	final PagedBank[] banks;
+
+	/** the state of machine, which must not be running (take it from the machine's thread, or while it's halted/paused) */
+	Snapshot(Machine machine) {
+		this(machine.REGS.clone(), machine.ZFL, machine.CFL, machine.OFL, machine.PROGRAM_COUNTER, machine.MEMORY_MODE, machine.ROM,
+			new PagedBank[] { PagedBank.copyOf(machine.MEMORY[RAM]), PagedBank.copyOf(machine.MEMORY[VRAM]) });
+	}
+
+	private Snapshot(char[] regs, boolean zfl, boolean cfl, boolean ofl, int programCounter, int memoryMode, byte[] rom, PagedBank[] banks) {
+		this.regs           = regs;
+		this.zfl            = zfl;
+		this.cfl            = cfl;
+		this.ofl            = ofl;
+		this.programCounter = programCounter;
+		this.memoryMode     = memoryMode;
+		this.rom            = rom;
+		this.banks          = banks;
+	}
+
+	/** a new machine in this state, on paged memory and with the default settings (clock, JIT, fusion) */
+	public Machine newMachine() {
+		Machine machine = new Machine(bank(RAM), bank(VRAM));
+		machine.restoreState(this);
+		return machine;
+	}
+
+	/** a private copy-on-write copy of one of the banks */
+	PagedBank bank(int index) {
+		return banks[index].fork();
+	}
+
+	public int getProgramCounter() {
+		return programCounter;
+	}
+
+	/** a copy of the registers */
+	public char[] getRegisters() {
+		return regs.clone();
+	}
+
+	/** write this snapshot to a file (truncated), see the class doc for the layout */
+	public void write(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(align(headerBytes(rom.length)));
+			header.putInt(MAGIC).putShort((short) VERSION)
+				.put((byte) ((zfl ? FLAG_ZFL : 0) | (cfl ? FLAG_CFL : 0) | (ofl ? FLAG_OFL : 0)))
+				.put((byte) memoryMode)
+				.putInt(programCounter);
+			for (char reg : regs) header.putChar(reg);
+			header.putInt(rom.length).put(rom);
+			writeFully(channel, header.clear());
+
+			byte[] page = new byte[PAGE];
+			for (PagedBank bank : banks) {
+				ByteBuffer bitmap = ByteBuffer.allocate(align(BITMAP));
+				for (int p = 0; p < PagedBank.PAGES; p++) {
+					if (!bank.isZeroPage(p)) bitmap.put(p >> 3, (byte) (bitmap.get(p >> 3) | (1 << (p & 7))));
+				}
+				writeFully(channel, bitmap);
+				for (int p = 0; p < PagedBank.PAGES; p++) {
+					if (bank.isZeroPage(p)) continue;
+					bank.read(p * PAGE, page, 0, PAGE);
+					writeFully(channel, ByteBuffer.wrap(page));
+				}
+			}
+		}
+	}
+
+	/** read a snapshot file back (see {@link #write(Path)}) */
+	public static Snapshot read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (data.remaining() < headerBytes(0) || data.getInt() != MAGIC) throw new IOException(file + " is not a FL516 snapshot");
+			int version = data.getShort();
+			if (version != VERSION) throw new IOException(file + ": unsupported snapshot version " + version);
+
+			int flags          = data.get();
+			int memoryMode     = data.get();
+			if (memoryMode != RAM && memoryMode != VRAM && memoryMode != IO) throw new IOException(file + ": bad memory mode " + memoryMode);
+			int programCounter = data.getInt();
+			char[] regs = new char[10];
+			for (int i = 0; i < regs.length; i++) regs[i] = data.getChar();
+			int romLength = data.getInt();
+			if (romLength < 0 || romLength > MemoryBank.SIZE) throw new IOException(file + ": bad ROM length " + romLength);
+			byte[] rom = new byte[romLength];
+			data.get(rom);
+			data.position(align(data.position()));
+
+			PagedBank[] banks = new PagedBank[2];
+			for (int b = 0; b < banks.length; b++) {
+				ByteBuffer bitmap = data.slice(data.position(), BITMAP);
+				data.position(data.position() + align(BITMAP));
+				banks[b] = new PagedBank();
+				byte[] page = new byte[PAGE];
+				for (int p = 0; p < PagedBank.PAGES; p++) {
+					if ((bitmap.get(p >> 3) & (1 << (p & 7))) == 0) continue;
+					data.get(page);
+					banks[b].write(p * PAGE, page, 0, PAGE);
+				}
+			}
+			return new Snapshot(regs, (flags & FLAG_ZFL) != 0, (flags & FLAG_CFL) != 0, (flags & FLAG_OFL) != 0,
+				programCounter, memoryMode, rom, banks);
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new IOException(file + " is truncated", e);
+		}
+	}
+
+	private static int headerBytes(int romLength) {
+		return 4 + 2 + 1 + 1 + 4 + 2 * 10 + 4 + romLength;
+	}
+
+	// round up to a whole page
+	private static int align(int bytes) {
+		return (bytes + PAGE - 1) & -PAGE;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) channel.write(buffer);
+	}
+}
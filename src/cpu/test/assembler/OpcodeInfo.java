@@ -69,9 +69,27 @@ public class OpcodeInfo {
 		OPCODE_INFO.put("JGE",  new Opcode(JGE,  List.of(OPERAND_NUMBER)));
 		OPCODE_INFO.put("CALL", new Opcode(CALL, List.of(OPERAND_NUMBER)));
 		OPCODE_INFO.put("RET",  new Opcode(RET,  List.of()));
+		// interrupts
+		OPCODE_INFO.put("EI",   new Opcode(EI,   List.of()));
+		OPCODE_INFO.put("DI",   new Opcode(DI,   List.of()));
+		OPCODE_INFO.put("IRET", new Opcode(IRET, List.of()));
+		OPCODE_INFO.put("WAIT", new Opcode(WAIT, List.of()));
+		OPCODE_INFO.put("IVEC", new Opcode(IVEC, List.of(OPERAND_NUMBER, OPERAND_NUMBER)));
+		OPCODE_INFO.put("TMR",  new Opcode(TMR,  List.of(OPERAND_REGISTER)));
+		// host calls (the number, or the name of a registered intrinsic)
+		OPCODE_INFO.put("HCALL",new Opcode(HCALL,List.of(OPERAND_NUMBER)));
 		// memory management unit
 		OPCODE_INFO.put("VMS",  new Opcode(VMS, List.of()));
 		OPCODE_INFO.put("WMS",  new Opcode(WMS, List.of()));
+		OPCODE_INFO.put("IMS",  new Opcode(IMS, List.of()));
+		// bulk memory (3 registers)
+		OPCODE_INFO.put("MEMCPY",  new Opcode(MEMCPY,  List.of(OPERAND_REGISTER, OPERAND_REGISTER, OPERAND_REGISTER)));
+		OPCODE_INFO.put("MEMSET",  new Opcode(MEMSET,  List.of(OPERAND_REGISTER, OPERAND_REGISTER, OPERAND_REGISTER)));
+		OPCODE_INFO.put("MEMCPYX", new Opcode(MEMCPYX, List.of(OPERAND_REGISTER, OPERAND_REGISTER, OPERAND_REGISTER)));
+		// packed pixels (VRAM)
+		OPCODE_INFO.put("PSET",  new Opcode(PSET,  List.of(OPERAND_REGISTER, OPERAND_REGISTER)));
+		OPCODE_INFO.put("PGET",  new Opcode(PGET,  List.of(OPERAND_REGISTER, OPERAND_REGISTER)));
+		OPCODE_INFO.put("PFILL", new Opcode(PFILL, List.of(OPERAND_REGISTER, OPERAND_REGISTER, OPERAND_REGISTER)));
 		// reserved
 		OPCODE_INFO.put("NOP",  new Opcode(NOP,  List.of()));
 		OPCODE_INFO.put("DBGP", new Opcode(DBGP, List.of()));
@@ -102,6 +120,11 @@ public class OpcodeInfo {
 			return operands.size() >= 2 ? operands.get(1) : -1 ;
 		}
 		
+		// only registers, packed with the second one ([2nd:8][3rd:8])
+		public int thirdOperandType() {
+			return operands.size() >= 3 ? operands.get(2) : -1 ;
+		}
+		
 		public String firstOperandTypeName() {
 			return firstOperandType() == OPERAND_REGISTER ? "register" : "immediate value";
 		}
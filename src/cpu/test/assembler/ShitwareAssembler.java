@@ -82,6 +82,31 @@ public class ShitwareAssembler {
 		InstructionsResolver.assembleFromParsedLines(fileName, lines);
 	}
 	
+	/**
+	 * Forget everything about the previous source (labels, data, sections, assembled bytes),
+	 * {@link #assemble(String, String[])} accumulates into global state, call this before assembling another file
+	 */
+	public static void reset() {
+		ASSEMBLED_BYTES = 0;
+		ASSEMBLED_BYTES_PASS_1 = 0;
+		markerFound.clear();
+		parseContext = ParserContext.TEXT;
+		InstructionsResolver.reset();
+		DataSectionResolver.reset();
+	}
+	
+	/**
+	 * The assembled program (.o): the text section followed by the data section
+	 */
+	public static byte[] image() {
+		List<Byte> text = InstructionsResolver.assembledTextSection;
+		List<Byte> data = DataSectionResolver.assembledDataSection;
+		byte[] image = new byte[text.size() + data.size()];
+		for (int i = 0; i < text.size(); i++) image[i] = text.get(i);
+		for (int i = 0; i < data.size(); i++) image[text.size() + i] = data.get(i);
+		return image;
+	}
+	
 	/**
 	 * Cleanup a line for error reporting
 	 */
@@ -135,6 +160,9 @@ public class ShitwareAssembler {
 		if (expected.secndOperandType() == -1) {
 			return "The instruction with opcode '" + opcodeStr + "' expects a single operand: [" + expected.firstOperandTypeName() + "]";
 		}
+		if (expected.thirdOperandType() != -1) {
+			return "The instruction with opcode '" + opcodeStr + "' expects 3 operands: [register], [register], [register]";
+		}
 		return "The instruction with opcode '" + opcodeStr + "' expects 2 operands: [" + expected.firstOperandTypeName() + "], [" + expected.secndOperandTypeName() + "]";
 	}
 	
@@ -236,13 +264,7 @@ public class ShitwareAssembler {
 
             // write to .o file
             try (FileOutputStream fos = new FileOutputStream(outputFile)) {
-                for (byte b : InstructionsResolver.assembledTextSection) {
-                    fos.write(b);
-                }
-                
-                for (byte b : DataSectionResolver.assembledDataSection) {
-                    fos.write(b);
-                }
+                fos.write(image());
             }
         } catch (IOException e) {
             System.err.println("FileError: " + e.getMessage());
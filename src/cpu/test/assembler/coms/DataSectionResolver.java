@@ -58,6 +58,15 @@ public class DataSectionResolver {
 	// the flag to restrict normal allocations after phantom allocation
 	private static boolean hasPhantomAllocation = false;
 	
+	/** clear the data section state (see ShitwareAssembler#reset) */
+	public static void reset() {
+		assembledDataSection.clear();
+		dataToAddressOffset.clear();
+		dataToLineIndex.clear();
+		ASSEMBLED_DATA = 0;
+		hasPhantomAllocation = false;
+	}
+	
 	public static void parseDataSectionLine(String fileName, String original, int lineNumber) {
 		// ignore comments and blank lines
 		if (original.trim().isBlank() || original.trim().startsWith(";")) return;
@@ -12,6 +12,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import cpu.test.FL516CPU;
+import cpu.test.Intrinsics;
 import cpu.test.assembler.SyntaxError;
 import cpu.test.assembler.OpcodeInfo.Opcode;
 
@@ -32,6 +33,13 @@ public class InstructionsResolver {
 	// byte representation and stored in this list for output or execution.
 	public static List<Byte> assembledTextSection = new ArrayList<>();
 	
+	/** clear the text section state (see ShitwareAssembler#reset) */
+	public static void reset() {
+		labelsToAddress.clear();
+		parsedLines.clear();
+		assembledTextSection.clear();
+	}
+	
 	public static boolean isTypeCorrect(String operand, int expected) {
 		if (expected == -1 && operand == null) return true; // no operand expected, and none provided.
 		if (expected != -1 && operand == null) return false; // operand expected, but none provided.
@@ -186,6 +194,7 @@ public class InstructionsResolver {
 				 || opcodeValue == FL516CPU.JGE  // jmp if greater or equal
 				 || opcodeValue == FL516CPU.JLE  // jmp if lesser or equal
 				 || opcodeValue == FL516CPU.CALL // function call (the same as JMP but with RET)
+				 || opcodeValue == FL516CPU.IVEC // interrupt handler address
 				) {
 					// replace .[label] with the memory address of label
 					for (int oprIndex = 1; oprIndex <= 2; oprIndex++) {
@@ -201,6 +210,15 @@ public class InstructionsResolver {
 					}
 				}
 				
+				// HCALL by name: the number of a registered intrinsic (see Intrinsics)
+				if (opcodeValue == FL516CPU.HCALL && parsedInstruction[1] != null && parsedInstruction[1].matches("[A-Za-z_]\\w*")) {
+					int intrinsic = Intrinsics.standard().index(parsedInstruction[1]);
+					if (intrinsic < 0) {
+						throw new SyntaxError("Unknown intrinsic '" + parsedInstruction[1] + "'\nUse the number of the intrinsic, or the name of a registered one.", eFIRST_OPR);
+					}
+					parsedInstruction[1] = String.valueOf(intrinsic);
+				}
+				
 				// replaces any #[constant defined in @data] found in an instruction (any)
 				for (int oprIndex = 1; oprIndex <= 2; oprIndex++) {
 					String operand = parsedInstruction[oprIndex];
@@ -215,6 +233,15 @@ public class InstructionsResolver {
 					parsedInstruction[oprIndex] = String.valueOf(ASSEMBLED_BYTES_PASS_1 + addressMap);
 				}
 				
+				// 3 registers (bulk memory): the line was split in two, the last part holds the 2nd and the 3rd
+				String thirdOperand = null;
+				if (opcode.thirdOperandType() != -1 && parsedInstruction[2] != null) {
+					String[] rest = parsedInstruction[2].split("\\s*,\\s*");
+					if (rest.length != 2) throw new SyntaxError(generateError(parsedInstruction[0], opcode), eSECND_OPR);
+					parsedInstruction[2] = rest[0];
+					thirdOperand = rest[1];
+				}
+				
 				// prechecks for the two operands
 				if (!isTypeCorrect(parsedInstruction[1], opcode.firstOperandType())) {
 					throw new SyntaxError(generateError(parsedInstruction[0], opcode), eFIRST_OPR);
@@ -222,12 +249,20 @@ public class InstructionsResolver {
 				if (!isTypeCorrect(parsedInstruction[2], opcode.secndOperandType())) {
 					throw new SyntaxError(generateError(parsedInstruction[0], opcode), eSECND_OPR);
 				}
+				if (opcode.thirdOperandType() != -1 && !isTypeCorrect(thirdOperand, opcode.thirdOperandType())) {
+					throw new SyntaxError(generateError(parsedInstruction[0], opcode), eSECND_OPR);
+				}
 				
 				// append opcode
 				assembledTextSection.add((byte) (opcode.getCode() & 0xFF));
 				// append first operand
 				assembleOperand(true , opcode.firstOperandType(), parsedInstruction[1]);
-				assembleOperand(false, opcode.secndOperandType(), parsedInstruction[2]);
+				if (thirdOperand != null) {
+					assembledTextSection.add(parseRegister(false, parsedInstruction[2]));
+					assembledTextSection.add(parseRegister(false, thirdOperand));
+				} else {
+					assembleOperand(false, opcode.secndOperandType(), parsedInstruction[2]);
+				}
 				
 				// increment by 5 (one instruction)
 				ASSEMBLED_BYTES += 5;
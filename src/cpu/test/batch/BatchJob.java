@@ -0,0 +1,93 @@
+package cpu.test.batch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * One program of a batch, with the registers it starts with.
+ * <p>
+ * Manifest format, one job per line ('#' starts a comment, paths are relative to the manifest):
+ * <pre>
+ * programs/fib.o
+ * programs/sort.o r0=12 r1=0x8000
+ * </pre>
+ * A register that is not given keeps its power-on value (0, the stack pointer at the top of the stack)
+ */
+public final class BatchJob {
+	/** position in the batch, also the order of the results file */
+	public final int    index;
+	public final Path   program;
+	// input registers, -1 = not given
+	final int[] inputs;
+
+	public BatchJob(int index, Path program, int[] inputs) {
+		if (inputs.length != 10) throw new IllegalArgumentException("A job has 10 input registers!");
+		this.index   = index;
+		this.program = program;
+		this.inputs  = inputs.clone();
+	}
+
+	/** every .o of a directory (sorted, no inputs), or the jobs of a manifest file */
+	public static List<BatchJob> load(Path source) throws IOException {
+		List<BatchJob> jobs = new ArrayList<>();
+		if (Files.isDirectory(source)) {
+			List<Path> programs;
+			try (Stream<Path> files = Files.list(source)) {
+				programs = files.filter(file -> file.toString().endsWith(".o")).sorted().collect(Collectors.toList());
+			}
+			for (Path program : programs) {
+				jobs.add(new BatchJob(jobs.size(), program, noInputs()));
+			}
+			return jobs;
+		}
+
+		Path base = source.toAbsolutePath().getParent();
+		try (BufferedReader reader = Files.newBufferedReader(source)) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				int comment = line.indexOf('#');
+				if (comment >= 0) line = line.substring(0, comment);
+				line = line.trim();
+				if (line.isEmpty()) continue;
+
+				String[] parts = line.split("\\s+");
+				int[] inputs = noInputs();
+				for (int i = 1; i < parts.length; i++) {
+					parseInput(parts[i], inputs, source, lineNumber);
+				}
+				jobs.add(new BatchJob(jobs.size(), base.resolve(parts[0]), inputs));
+			}
+		}
+		return jobs;
+	}
+
+	// rN=value, the value in decimal or 0x hex
+	private static void parseInput(String input, int[] inputs, Path source, int lineNumber) throws IOException {
+		int equals = input.indexOf('=');
+		try {
+			if (equals < 2 || Character.toLowerCase(input.charAt(0)) != 'r') throw new NumberFormatException();
+			int register = Integer.parseInt(input.substring(1, equals));
+			String text = input.substring(equals + 1);
+			int value = text.startsWith("0x") || text.startsWith("0X") ? Integer.parseInt(text.substring(2), 16) : Integer.parseInt(text);
+			if (register < 0 || register >= inputs.length || value < 0 || value > 0xFFFF) throw new NumberFormatException();
+			inputs[register] = value;
+		} catch (NumberFormatException e) {
+			throw new IOException(source + ":" + lineNumber + ": bad input register \"" + input + "\" (expected rN=value, N 0..9, value 0..0xFFFF)");
+		}
+	}
+
+	private static int[] noInputs() {
+		int[] inputs = new int[10];
+		Arrays.fill(inputs, -1);
+		return inputs;
+	}
+}
@@ -0,0 +1,258 @@
+package cpu.test.batch;
+
+import static cpu.test.FL516CPU.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import cpu.test.Machine;
+
+/**
+ * Runs a batch of programs (see {@link BatchJob}), every job on its own virtual thread and its own machine,
+ * with an instruction budget, and writes one result line per job (in job order) into a CSV file:
+ * <pre>job,program,reason,instructions,latency_us,pc,zfl,cfl,ofl,r0,...,r8,sp</pre>
+ * reason is HALTED (HLT), FAULT (unknown opcode), BUDGET (still running when the budget ran out),
+ * IDLE (spinning in an idle loop when the budget ran out, the rest of the budget is skipped, see Machine#IDLE),
+ * WAITING (in a WAIT that no line woke up within the max wait, the host never raises one),
+ * PAUSED (DBGP), or EXCEPTION/LOAD_ERROR/CONSOLE_ERROR with the exception class.
+ * <p>
+ * At most maxLive machines exist at once, the submitter waits for a permit before it creates the next job,
+ * so memory stays bounded however long the batch is. Virtual threads need Java 21, on an older runtime
+ * the jobs run on one platform thread per core instead.
+ * <p>
+ * What the jobs print on their console is dropped, unless a console directory is given: then every job's
+ * output is kept in memory while it runs and written to &lt;directory&gt;/&lt;job&gt;.out when it's done
+ *
+ * usage: java cpu.test.batch.BatchRunner &lt;directory | manifest&gt; [--out results.csv] [--budget instructions] [--max-live machines] [--max-wait ms] [--console directory]
+ */
+public class BatchRunner {
+	public static final long DEFAULT_BUDGET   = 1_000_000_000L;
+	public static final int  DEFAULT_MAX_LIVE = 256;
+	public static final long DEFAULT_MAX_WAIT = 1000; // ms
+
+	static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+	private final long budget;
+	private final int  maxLive;
+	// how long a job may sleep in a WAIT before it's stopped (WAITING)
+	private long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT);
+	// where the console output of the jobs goes, null = nowhere
+	private Path consoleDirectory = null;
+	// the same program is read once per batch
+	private final ConcurrentHashMap<Path, byte[]> roms = new ConcurrentHashMap<>();
+
+	public BatchRunner(long budget, int maxLive) {
+		if (budget < 1 || maxLive < 1) throw new IllegalArgumentException("The budget and the number of live machines must be positive!");
+		this.budget  = budget;
+		this.maxLive = maxLive;
+	}
+
+	/** how long a job may wait for an interrupt (WAIT) before it's stopped, in ms */
+	public BatchRunner setMaxWait(long millis) {
+		if (millis < 0) throw new IllegalArgumentException("The max wait can't be negative!");
+		maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+		return this;
+	}
+
+	/** keep the console output of every job, in directory/&lt;job&gt;.out (null drops it, the default) */
+	public BatchRunner setConsoleDirectory(Path directory) throws IOException {
+		if (directory != null) Files.createDirectories(directory);
+		consoleDirectory = directory;
+		return this;
+	}
+
+	/** aggregate numbers of a finished batch */
+	public static final class Summary {
+		public final int    jobs;
+		public final long   nanos;
+		public final long   instructions;
+		public final long   p50Nanos, p99Nanos;
+		public final String threads;
+
+		Summary(int jobs, long nanos, long instructions, long[] latencies, String threads) {
+			this.jobs         = jobs;
+			this.nanos        = nanos;
+			this.instructions = instructions;
+			Arrays.sort(latencies);
+			this.p50Nanos     = percentile(latencies, 0.50);
+			this.p99Nanos     = percentile(latencies, 0.99);
+			this.threads      = threads;
+		}
+
+		private static long percentile(long[] sorted, double p) {
+			if (sorted.length == 0) return 0;
+			return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+		}
+
+		public double jobsPerSecond() {
+			return jobs / (nanos / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("[BATCH] %d jobs in %.3fs on %s threads: %.1f jobs/s, latency p50 %.1fus p99 %.1fus, %.2f MIPS",
+				jobs, nanos / 1e9, threads, jobsPerSecond(), p50Nanos / 1e3, p99Nanos / 1e3, instructions * 1e3 / nanos);
+		}
+	}
+
+	/** run every job and write the results file, returns once all jobs are done */
+	public Summary run(List<BatchJob> jobs, Path results) throws IOException, InterruptedException {
+		String[] lines     = new String[jobs.size()];
+		long[]   latencies = new long[jobs.size()];
+		long[]   retired   = new long[jobs.size()];
+		Semaphore live = new Semaphore(maxLive);
+
+		ExecutorService executor = virtualThreadExecutor();
+		String threads = executor == null ? "platform" : "virtual";
+		if (executor == null) executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), task -> {
+			Thread worker = new Thread(task, "fl516-batch");
+			worker.setDaemon(true);
+			return worker;
+		});
+
+		long start = System.nanoTime();
+		try {
+			for (BatchJob job : jobs) {
+				live.acquire();
+				executor.execute(() -> {
+					Machine machine = null;
+					try {
+						long jobStart = System.nanoTime();
+						String reason;
+						try {
+							machine = load(job);
+							machine.runFor(budget, maxWaitNanos);
+							reason = stopReason(machine);
+							if (consoleDirectory != null) {
+								Files.write(consoleDirectory.resolve(job.index + ".out"), machine.console().captured());
+							}
+						} catch (IOException e) {
+							reason = "CONSOLE_ERROR " + e.getClass().getSimpleName();
+						} catch (UncheckedIOException e) {
+							reason = "LOAD_ERROR " + e.getCause().getClass().getSimpleName();
+						} catch (Throwable e) {
+							// errors too (out of memory, a compiled block that couldn't be defined...), the row is written anyway
+							reason = "EXCEPTION " + e.getClass().getSimpleName();
+						}
+						latencies[job.index] = System.nanoTime() - jobStart;
+						retired[job.index]   = machine == null ? 0 : machine.instructionsRetired;
+						lines[job.index]     = format(job, reason, machine, latencies[job.index]);
+					} finally {
+						// its timer would keep it reachable (and the timer wheel busy) past the end of the job
+						if (machine != null) machine.close();
+						live.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		long nanos = System.nanoTime() - start;
+
+		try (BufferedWriter out = Files.newBufferedWriter(results)) {
+			out.write("job,program,reason,instructions,latency_us,pc,zfl,cfl,ofl,r0,r1,r2,r3,r4,r5,r6,r7,r8,sp");
+			out.newLine();
+			for (String line : lines) {
+				out.write(line);
+				out.newLine();
+			}
+		}
+		return new Summary(jobs.size(), nanos, Arrays.stream(retired).sum(), latencies, threads);
+	}
+
+	private Machine load(BatchJob job) {
+		byte[] rom = roms.computeIfAbsent(job.program, program -> {
+			try {
+				return Files.readAllBytes(program);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+		Machine machine = new Machine(rom).setOutput(DISCARD, DISCARD);
+		if (consoleDirectory != null) machine.console().capture();
+		else machine.console().setChannel(null);
+		for (int r = 0; r < job.inputs.length; r++) {
+			if (job.inputs[r] >= 0) machine.REGS[r] = (char) job.inputs[r];
+		}
+		return machine;
+	}
+
+	// why runFor returned
+	private static String stopReason(Machine machine) {
+		if (machine.PAUSED) return "PAUSED";
+		if (machine.RUNNING && machine.WAITING) return "WAITING";
+		if (machine.RUNNING && machine.IDLE) return "IDLE";
+		if (machine.RUNNING) return "BUDGET";
+		// HLT and unknown opcodes both stop the machine right after the fetch
+		int pc = machine.PROGRAM_COUNTER - 5;
+		return pc >= 0 && machine.MEMORY[RAM].getByte(pc) == HLT ? "HALTED" : "FAULT";
+	}
+
+	private static String format(BatchJob job, String reason, Machine machine, long nanos) {
+		StringBuilder line = new StringBuilder(128)
+			.append(job.index).append(',').append(job.program).append(',').append(reason).append(',')
+			.append(machine == null ? 0 : machine.instructionsRetired).append(',')
+			.append(nanos / 1000);
+		if (machine == null) return line.append(",,,,").append(",".repeat(10)).toString();
+		line.append(',').append(machine.PROGRAM_COUNTER)
+			.append(',').append(machine.ZFL ? 1 : 0)
+			.append(',').append(machine.CFL ? 1 : 0)
+			.append(',').append(machine.OFL ? 1 : 0);
+		for (char reg : machine.REGS) line.append(',').append((int) reg);
+		return line.toString();
+	}
+
+	// Executors.newVirtualThreadPerTaskExecutor() when the runtime has it (Java 21+), null otherwise
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null; // older runtime, or a preview feature that isn't enabled
+		}
+	}
+
+	public static void main(String... args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: java fl516emu --batch <directory | manifest> [--out results.csv] [--budget instructions] [--max-live machines] [--max-wait ms] [--console directory]");
+			System.exit(1);
+		}
+		String out     = optionValue("--out", args);
+		String budget  = optionValue("--budget", args);
+		String maxLive = optionValue("--max-live", args);
+		String maxWait = optionValue("--max-wait", args);
+		String console = optionValue("--console", args);
+		BatchRunner runner = new BatchRunner(budget == null ? DEFAULT_BUDGET : Long.parseLong(budget),
+			maxLive == null ? DEFAULT_MAX_LIVE : Integer.parseInt(maxLive));
+		if (maxWait != null) runner.setMaxWait(Long.parseLong(maxWait));
+		if (console != null) runner.setConsoleDirectory(Paths.get(console));
+
+		List<BatchJob> jobs = BatchJob.load(Paths.get(args[0]));
+		Path results = Paths.get(out == null ? "results.csv" : out);
+		System.out.println(runner.run(jobs, results));
+		System.out.println("[BATCH] results written to " + results);
+	}
+
+	// the value following a "--option" argument, null if the option is absent
+	private static String optionValue(String option, String... args) {
+		for (int i = 1; i < args.length; i++) {
+			if (!args[i].equals(option)) continue;
+			if (i + 1 >= args.length) throw new IllegalArgumentException(option + " expects a value!");
+			return args[i + 1];
+		}
+		return null;
+	}
+}
@@ -0,0 +1,69 @@
+package cpu.test.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cpu.test.Machine;
+
+/**
+ * Single-thread throughput, runs every program (asm/*.o by default) over and over on the same machine,
+ * once interpreted only and once with the JIT, and prints the achieved MIPS and ns per instruction
+ *
+ * usage: java cpu.test.bench.InterpreterBenchmark [seconds per program] [program.o ...]
+ */
+public class InterpreterBenchmark {
+	static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+	public static void main(String... args) throws IOException, InterruptedException {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		List<Path> programs = args.length > 1
+			? Stream.of(args).skip(1).map(Paths::get).collect(Collectors.toList())
+			: listPrograms(Paths.get("asm"));
+
+		System.out.println("| program               | instr/run | interp MIPS | ns/instr |    JIT MIPS | ns/instr | speedup |");
+		for (Path program : programs) {
+			byte[] rom = Files.readAllBytes(program);
+			double[] interpreted = measure(new Machine(rom).setOutput(DISCARD, DISCARD).setJit(false), seconds);
+			double[] compiled    = measure(new Machine(rom).setOutput(DISCARD, DISCARD).setJit(true), seconds);
+			System.out.printf("| %-21s | %9d | %11.2f | %8.2f | %11.2f | %8.2f | %6.2fx |%n", program.getFileName(), (long) compiled[1],
+				interpreted[0], 1e3 / interpreted[0], compiled[0], 1e3 / compiled[0], compiled[0] / interpreted[0]);
+		}
+	}
+
+	// returns { MIPS, instructions per run }
+	static double[] measure(Machine machine, double seconds) throws InterruptedException {
+		run(machine, seconds / 2); // warmup
+		long[] result = run(machine, seconds);
+		return new double[] { result[0] * 1e3 / result[1], result[2] };
+	}
+
+	static List<Path> listPrograms(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".o")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	// returns { instructions, nanos, instructions per run }
+	static long[] run(Machine machine, double seconds) throws InterruptedException {
+		long instructions = 0, perRun = 0;
+		long start = System.nanoTime();
+		long deadline = start + (long) (seconds * 1e9);
+		long now;
+		do {
+			for (int i = 0; i < 100; i++) {
+				machine.reset();
+				machine.runUntilHalt();
+				perRun = machine.instructionsRetired;
+				instructions += perRun;
+			}
+		} while ((now = System.nanoTime()) < deadline);
+		return new long[] { instructions, now - start, perRun };
+	}
+}
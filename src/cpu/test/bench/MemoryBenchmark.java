@@ -0,0 +1,95 @@
+package cpu.test.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cpu.test.Decoder;
+import cpu.test.Machine;
+import cpu.test.memory.DirectBank;
+import cpu.test.memory.HeapBank;
+import cpu.test.memory.MemoryBank;
+import cpu.test.memory.SharedCode;
+
+/**
+ * Memory backend comparison, heap arrays vs off-heap banks (plain and sharing the program image).
+ * <p>
+ * First the raw paths: instruction fetch (a decode sweep over the whole bank) and 16-bit load/store sweeps,
+ * then every program (asm/*.o by default) interpreted only, so the memory ops aren't hidden behind compiled code.
+ * Both backends share the call sites here, for numbers of a single backend run InterpreterBenchmark
+ * with {@code -Dfl516.memory=heap|direct}
+ *
+ * usage: java cpu.test.bench.MemoryBenchmark [seconds per case] [program.o ...]
+ */
+public class MemoryBenchmark {
+	public static void main(String... args) throws IOException, InterruptedException {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		List<Path> programs = args.length > 1
+			? Stream.of(args).skip(1).map(Paths::get).collect(Collectors.toList())
+			: InterpreterBenchmark.listPrograms(Paths.get("asm"));
+
+		System.out.println("| access         |  heap ns/op | direct ns/op | direct speedup |");
+		sweep("fetch (decode)", seconds, bank -> {
+			long sum = 0;
+			for (int pc = 0; pc + 5 <= MemoryBank.SIZE; pc += 5) sum += Decoder.decode(bank, pc);
+			return sum;
+		}, MemoryBank.SIZE / 5);
+		sweep("load half", seconds, bank -> {
+			long sum = 0;
+			for (int address = 0; address < MemoryBank.SIZE - 1; address++) sum += bank.getHalf(address);
+			return sum;
+		}, MemoryBank.SIZE - 1);
+		sweep("store half", seconds, bank -> {
+			for (int address = 0; address < MemoryBank.SIZE - 1; address++) bank.setHalf(address, address);
+			return bank.getByte(0);
+		}, MemoryBank.SIZE - 1);
+
+		System.out.println();
+		System.out.println("| program               |   heap MIPS | direct MIPS | shared MIPS | direct speedup |");
+		for (Path program : programs) {
+			byte[] rom = Files.readAllBytes(program);
+			SharedCode code = new SharedCode(rom);
+			double heap   = mips(rom, HeapBank::new, HeapBank::new, seconds);
+			double direct = mips(rom, DirectBank::new, DirectBank::new, seconds);
+			double shared = mips(rom, () -> new DirectBank(code), DirectBank::new, seconds);
+			System.out.printf("| %-21s | %11.2f | %11.2f | %11.2f | %13.2fx |%n", program.getFileName(), heap, direct, shared, direct / heap);
+		}
+	}
+
+	interface Sweep {
+		long run(MemoryBank bank);
+	}
+
+	static long sink;
+
+	private static void sweep(String name, double seconds, Sweep sweep, int opsPerSweep) {
+		double heap   = nanosPerOp(new HeapBank(), seconds, sweep, opsPerSweep);
+		double direct = nanosPerOp(new DirectBank(), seconds, sweep, opsPerSweep);
+		System.out.printf("| %-14s | %11.3f | %12.3f | %13.2fx |%n", name, heap, direct, heap / direct);
+	}
+
+	private static double nanosPerOp(MemoryBank bank, double seconds, Sweep sweep, int opsPerSweep) {
+		for (int pass = 0; pass < 2; pass++) { // the first pass is the warmup
+			long sweeps = 0;
+			long start = System.nanoTime();
+			long deadline = start + (long) (seconds * 1e9 / 2);
+			long now;
+			do {
+				sink += sweep.run(bank);
+				sweeps++;
+			} while ((now = System.nanoTime()) < deadline);
+			if (pass == 1) return (now - start) / (double) (sweeps * opsPerSweep);
+		}
+		throw new AssertionError();
+	}
+
+	private static double mips(byte[] rom, Supplier<MemoryBank> ram, Supplier<MemoryBank> vram, double seconds) throws InterruptedException {
+		Machine machine = new Machine(rom, ram.get(), vram.get()).setOutput(InterpreterBenchmark.DISCARD, InterpreterBenchmark.DISCARD).setJit(false);
+		return InterpreterBenchmark.measure(machine, seconds)[0];
+	}
+}
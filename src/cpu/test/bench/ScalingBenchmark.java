@@ -0,0 +1,66 @@
+package cpu.test.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import cpu.test.MachinePool;
+
+/**
+ * Throughput benchmark for the machine pool, runs the same batch of jobs with 1..N workers
+ * and prints jobs/sec plus the speedup over a single worker
+ *
+ * usage: java cpu.test.bench.ScalingBenchmark [jobs per worker] [program.o ...]
+ */
+public class ScalingBenchmark {
+	static final String[] DEFAULT_PROGRAMS = { "asm/fib.o", "asm/general-test.o" };
+
+	public static void main(String... args) throws IOException, InterruptedException, ExecutionException {
+		int jobsPerWorker = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		String[] programs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : DEFAULT_PROGRAMS;
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		for (String program : programs) {
+			byte[] rom = Files.readAllBytes(Paths.get(program));
+			System.out.println("[BENCH] " + program + " (" + rom.length + " bytes, " + cores + " cores)");
+			System.out.println("| workers |   jobs |   jobs/s | speedup |");
+
+			// warmup (jit the interpreter loop)
+			run(rom, 1, jobsPerWorker);
+
+			double baseline = 0;
+			for (int workers = 1; workers <= cores; workers = nextWorkerCount(workers, cores)) {
+				int jobs = workers * jobsPerWorker;
+				double jobsPerSec = run(rom, workers, jobs);
+				if (workers == 1) baseline = jobsPerSec;
+				System.out.printf("| %7d | %6d | %8.1f | %6.2fx |%n", workers, jobs, jobsPerSec, jobsPerSec / baseline);
+			}
+			System.out.println();
+		}
+	}
+
+	// 1, 2, 4, 8 ... and always the core count itself
+	private static int nextWorkerCount(int workers, int cores) {
+		if (workers == cores) return cores + 1;
+		return Math.min(workers * 2, cores);
+	}
+
+	private static double run(byte[] rom, int workers, int jobs) throws InterruptedException, ExecutionException {
+		try (MachinePool pool = new MachinePool(workers)) {
+			long start = System.nanoTime();
+			List<Future<?>> results = new ArrayList<>(jobs);
+			for (int i = 0; i < jobs; i++) {
+				results.add(pool.submit(rom));
+			}
+			for (Future<?> result : results) {
+				result.get();
+			}
+			return jobs / ((System.nanoTime() - start) / 1e9);
+		}
+	}
+}
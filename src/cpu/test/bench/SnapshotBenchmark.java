@@ -0,0 +1,65 @@
+package cpu.test.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import cpu.test.Machine;
+import cpu.test.Snapshot;
+import cpu.test.memory.HeapBank;
+import cpu.test.memory.PagedBank;
+
+/**
+ * Cost of checkpointing, for every program (asm/*.o by default) run halfway: taking a snapshot of a machine
+ * on heap memory (a full copy) and on paged memory (page tables only), starting a new machine from a snapshot,
+ * and the fan-out case, fork + run the rest of the program
+ *
+ * usage: java cpu.test.bench.SnapshotBenchmark [iterations] [program.o ...]
+ */
+public class SnapshotBenchmark {
+	public static void main(String... args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		List<Path> programs = args.length > 1
+			? Stream.of(args).skip(1).map(Paths::get).collect(Collectors.toList())
+			: InterpreterBenchmark.listPrograms(Paths.get("asm"));
+
+		System.out.println("| program               | heap snapshot us | paged snapshot us | new machine us | fork+finish us |");
+		for (Path program : programs) {
+			byte[] rom = Files.readAllBytes(program);
+			long length = machine(rom, false).runFor(Long.MAX_VALUE);
+
+			Machine heap  = machine(rom, false);
+			Machine paged = machine(rom, true);
+			heap.runFor(length / 2);
+			paged.runFor(length / 2);
+			Snapshot snapshot = paged.snapshot();
+
+			double[] result = new double[4];
+			for (int pass = 0; pass < 2; pass++) { // the first pass is the warmup
+				result[0] = micros(iterations, heap::snapshot);
+				result[1] = micros(iterations, paged::snapshot);
+				result[2] = micros(iterations, snapshot::newMachine);
+				result[3] = micros(iterations, () -> snapshot.newMachine().setOutput(InterpreterBenchmark.DISCARD, InterpreterBenchmark.DISCARD).runFor(Long.MAX_VALUE));
+			}
+			System.out.printf("| %-21s | %16.2f | %17.2f | %14.2f | %14.2f |%n", program.getFileName(), result[0], result[1], result[2], result[3]);
+		}
+	}
+
+	private static Machine machine(byte[] rom, boolean paged) {
+		Machine machine = paged ? new Machine(rom, new PagedBank(), new PagedBank()) : new Machine(rom, new HeapBank(), new HeapBank());
+		return machine.setOutput(InterpreterBenchmark.DISCARD, InterpreterBenchmark.DISCARD);
+	}
+
+	static Object sink;
+
+	private static double micros(int iterations, Supplier<Object> task) {
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) sink = task.get();
+		return (System.nanoTime() - start) / 1e3 / iterations;
+	}
+}
@@ -0,0 +1,159 @@
+package cpu.test.device;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The console of a machine, mapped at {@value #BASE} of its I/O bank: what the guest writes there is
+ * appended to a buffer, which goes out in {@value #BUFFER_SIZE}-byte batches through a channel (when it's
+ * full, and when the machine stops, waits or idles), not one print per byte like the DBGP dumps.
+ * <pre>
+ * IMS
+ * SMB r1, r2  ; r1 = 0x0000 (OUT): writes the low byte of r2
+ * SMH r1, r2  ; r1 = 0x0000 (OUT): writes both bytes of r2 (high byte first)
+ * SMH r1, r2  ; r1 = 0x0002 (DEC): writes r2 in decimal
+ * SMB r1, r2  ; r1 = 0x0003 (FLUSH): flush now (e.g. a prompt)
+ * </pre>
+ * Reads return 0. The output goes to System.out by default, to another channel ({@link #setChannel}),
+ * nowhere (a null channel), or into memory ({@link #capture()}, for batch jobs).
+ * <p>
+ * Writes and flushes come from the machine's thread, set the channel / read the capture while it isn't running
+ */
+public final class Console implements Device {
+	public static final int BASE  = 0x0000;
+	public static final int SIZE  = 4;
+	// registers
+	public static final int OUT   = 0;
+	public static final int DEC   = 2;
+	public static final int FLUSH = 3;
+
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	// allocated on the first write: most machines (pools, batches) never print
+	private ByteBuffer buffer = null;
+	private WritableByteChannel channel;
+	private ByteArrayOutputStream captured = null;
+	private long written = 0;
+	private IOException failure = null;
+
+	/** a console writing to System.out */
+	public Console() {
+		this(Channels.newChannel(System.out));
+	}
+
+	/** a console writing to channel (null discards the output) */
+	public Console(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public int read(int offset) {
+		return 0;
+	}
+
+	@Override
+	public void write(int offset, int value) {
+		switch (offset) {
+		case OUT:
+			put(value);
+			break;
+		case DEC:
+			putDecimal(value & 0xFF);
+			break;
+		case FLUSH:
+			flush();
+			break;
+		}
+	}
+
+	@Override
+	public void writeHalf(int offset, int value) {
+		switch (offset) {
+		case OUT:
+			put(value >> 8);
+			put(value);
+			break;
+		case DEC:
+			putDecimal(value & 0xFFFF);
+			break;
+		default:
+			write(offset, value);
+		}
+	}
+
+	private void put(int value) {
+		if (buffer == null) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.put((byte) value);
+		if (!buffer.hasRemaining()) flush();
+	}
+
+	// at most 5 digits, no String on the way
+	private void putDecimal(int value) {
+		int digits = 1;
+		for (int rest = value / 10; rest != 0; rest /= 10) digits++;
+		if (buffer == null) buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		if (buffer.remaining() < digits) flush();
+		int end = buffer.position() + digits;
+		for (int i = end - 1; i >= end - digits; i--, value /= 10) buffer.put(i, (byte) ('0' + value % 10));
+		buffer.position(end);
+		if (!buffer.hasRemaining()) flush();
+	}
+
+	/**
+	 * write out what is buffered. A failing channel isn't fatal to the guest: its output is dropped from
+	 * then on, see {@link #failure()}
+	 */
+	public void flush() {
+		if (buffer == null || buffer.position() == 0) return;
+		buffer.flip();
+		written += buffer.remaining();
+		try {
+			if (captured != null) captured.write(buffer.array(), 0, buffer.limit());
+			else if (channel != null && failure == null) while (buffer.hasRemaining()) channel.write(buffer);
+		} catch (IOException e) {
+			failure = e;
+		}
+		buffer.clear();
+	}
+
+	/** send the output to channel from now on (null discards it), what is buffered is flushed first */
+	public Console setChannel(WritableByteChannel channel) {
+		flush();
+		this.channel  = channel;
+		this.captured = null;
+		this.failure  = null;
+		return this;
+	}
+
+	/** keep the output in memory from now on (see {@link #captured()}), what is buffered is flushed first */
+	public Console capture() {
+		flush();
+		captured = new ByteArrayOutputStream();
+		return this;
+	}
+
+	/** everything written since {@link #capture()}, empty if the output isn't captured */
+	public byte[] captured() {
+		flush();
+		return captured == null ? new byte[0] : captured.toByteArray();
+	}
+
+	/** {@link #captured()} as text */
+	public String capturedText() {
+		return new String(captured(), StandardCharsets.UTF_8);
+	}
+
+	/** bytes written by the guest so far (flushed ones) */
+	public long written() {
+		return written;
+	}
+
+	/** why the channel stopped taking the output, null if it didn't */
+	public IOException failure() {
+		return failure;
+	}
+}
@@ -0,0 +1,34 @@
+package cpu.test.device;
+
+/**
+ * A device on a machine's I/O bus (see {@link DeviceBus}): a few registers the guest reads and writes with
+ * LMB / LMH / SMB / SMH while in I/O mode (IMS). Offsets are relative to where the device is mapped.
+ * <p>
+ * Accesses come from the machine's thread, they may have side effects (e.g. reading pops a queue)
+ */
+public interface Device {
+	/** the byte register at offset */
+	int read(int offset);
+
+	/** store the low 8 bits of value into the register at offset */
+	void write(int offset, int value);
+
+	/** a 16-bit access (LMH), two byte reads (big-endian) unless the device has 16-bit registers */
+	default int readHalf(int offset) {
+		return (read(offset) & 0xFF) << 8 | (read(offset + 1) & 0xFF);
+	}
+
+	/** a 16-bit access (SMH), two byte writes (big-endian) unless the device has 16-bit registers */
+	default void writeHalf(int offset, int value) {
+		write(offset, value >> 8);
+		write(offset + 1, value);
+	}
+
+	/**
+	 * true if reading the register at offset has no side effect and it only changes when the host wakes the
+	 * machine up (raising an interrupt line or Machine#wake): a loop polling it may be parked as idle
+	 */
+	default boolean pure(int offset) {
+		return false;
+	}
+}
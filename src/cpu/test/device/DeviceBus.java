@@ -0,0 +1,128 @@
+package cpu.test.device;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * The I/O bank of a machine (bank 2, selected with IMS): a 64KB address space where devices are mapped
+ * instead of memory. Working RAM and VRAM are untouched, plain memory accesses don't pay anything for it.
+ * <p>
+ * Every 256-byte page holds at most one device, an access looks its page up and does one (unsigned) range
+ * comparison against that device. Unmapped addresses read as 0 and ignore writes. A half-word access goes to
+ * the device holding its first byte.
+ * <p>
+ * Map devices before the machine runs, the page table isn't synchronized
+ */
+public final class DeviceBus extends MemoryBank {
+	public static final int PAGE  = 256;
+	public static final int PAGES = SIZE / PAGE;
+
+	// a device and the addresses it covers
+	private static final class Mapping {
+		final int    base, size;
+		final Device device;
+
+		Mapping(int base, int size, Device device) {
+			this.base   = base;
+			this.size   = size;
+			this.device = device;
+		}
+	}
+
+	// covers nothing: unmapped pages need no null check
+	private static final Mapping NONE = new Mapping(0, 0, null);
+
+	private final Mapping[] pages = new Mapping[PAGES];
+
+	public DeviceBus() {
+		Arrays.fill(pages, NONE);
+	}
+
+	/**
+	 * map a device at base..base + size - 1
+	 * @throws IllegalArgumentException if the range is out of the bank or shares a page with another device
+	 */
+	public DeviceBus map(int base, int size, Device device) {
+		if (size <= 0 || base < 0 || base + size > SIZE) throw new IllegalArgumentException(String.format("Invalid device range %04X+%d", base, size));
+		for (int page = base / PAGE; page <= (base + size - 1) / PAGE; page++) {
+			if (pages[page] != NONE) throw new IllegalArgumentException(String.format("Page %02X of the I/O bank already holds a device", page));
+		}
+		Mapping mapping = new Mapping(base, size, device);
+		for (int page = base / PAGE; page <= (base + size - 1) / PAGE; page++) pages[page] = mapping;
+		return this;
+	}
+
+	/** remove the device mapped at address (any of its addresses), if any */
+	public DeviceBus unmap(int address) {
+		Mapping mapping = pages[address / PAGE];
+		if (mapping == NONE) return this;
+		for (int page = mapping.base / PAGE; page <= (mapping.base + mapping.size - 1) / PAGE; page++) pages[page] = NONE;
+		return this;
+	}
+
+	/** the device mapped at address, null if none */
+	public Device device(int address) {
+		Mapping mapping = pages[address / PAGE];
+		return Integer.compareUnsigned(address - mapping.base, mapping.size) < 0 ? mapping.device : null;
+	}
+
+	/** see {@link Device#pure(int)}, unmapped addresses are pure (always 0) */
+	public boolean pure(int address) {
+		Mapping mapping = pages[address >>> 8];
+		int offset = address - mapping.base;
+		return Integer.compareUnsigned(offset, mapping.size) >= 0 || mapping.device.pure(offset);
+	}
+
+	@Override
+	public int getByte(int address) {
+		Mapping mapping = pages[address >>> 8];
+		int offset = address - mapping.base;
+		return Integer.compareUnsigned(offset, mapping.size) < 0 ? mapping.device.read(offset) & 0xFF : 0;
+	}
+
+	@Override
+	public int getHalf(int address) {
+		Mapping mapping = pages[address >>> 8];
+		int offset = address - mapping.base;
+		return Integer.compareUnsigned(offset, mapping.size) < 0 ? mapping.device.readHalf(offset) & 0xFFFF : 0;
+	}
+
+	@Override
+	public void setByte(int address, int value) {
+		Mapping mapping = pages[address >>> 8];
+		int offset = address - mapping.base;
+		if (Integer.compareUnsigned(offset, mapping.size) < 0) mapping.device.write(offset, value & 0xFF);
+	}
+
+	@Override
+	public void setHalf(int address, int value) {
+		Mapping mapping = pages[address >>> 8];
+		int offset = address - mapping.base;
+		if (Integer.compareUnsigned(offset, mapping.size) < 0) mapping.device.writeHalf(offset, value & 0xFFFF);
+	}
+
+	// bulk accesses are byte accesses, in address order
+
+	@Override
+	public void read(int address, byte[] dst, int offset, int length) {
+		for (int i = 0; i < length; i++) dst[offset + i] = (byte) getByte(address + i);
+	}
+
+	@Override
+	public void write(int address, byte[] src, int offset, int length) {
+		for (int i = 0; i < length; i++) setByte(address + i, src[offset + i]);
+	}
+
+	/** devices aren't memory, there's nothing to load a program into */
+	@Override
+	public void loadProgram(byte[] rom) {
+		throw new UnsupportedOperationException("The I/O bank holds devices, not memory");
+	}
+
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		throw new UnsupportedOperationException("The I/O bank holds devices, not memory");
+	}
+}
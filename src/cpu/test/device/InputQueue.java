@@ -0,0 +1,163 @@
+package cpu.test.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The input queue of a machine, mapped at {@value #BASE} of its I/O bank: a host thread pushes 16-bit
+ * words (keystrokes, data) with {@link #offer(int)}, the guest pops them.
+ * <pre>
+ * IMS
+ * LMH r2, r1  ; r1 = 0x0100 (COUNT): how many words are waiting (LMB: at most 255)
+ * LMH r2, r1  ; r1 = 0x0102 (NEXT): pops the next word, 0 if there is none (LMB: its low byte)
+ * </pre>
+ * The queue raises its interrupt line (InterruptController#INPUT) while it holds data and lowers it when
+ * the guest drains it, so a guest with a vector on that line can WAIT for input (or take it in a handler).
+ * A guest polling COUNT instead is an idle loop (COUNT has no side effects), it parks until something is
+ * offered.
+ * <p>
+ * Single producer, single consumer, lock-free: a ring of words with two published positions (ordered stores,
+ * no fences on either side), each side caches the other's position and only reads it again when the ring
+ * looks full (producer) or empty (consumer). One host thread at a time may offer, the consumer is the
+ * machine's thread
+ */
+public final class InputQueue implements Device {
+	public static final int BASE  = 0x0100;
+	public static final int SIZE  = 4;
+	// registers
+	public static final int COUNT = 0;
+	public static final int NEXT  = 2;
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final char[] ring;
+	private final int    mask;
+
+	private final InterruptController interrupts;
+	private final int line;
+
+	// published positions, head = words offered, tail = words taken
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	// producer (host) side
+	private long writePos;
+	private long cachedTail;
+
+	// consumer (machine) side
+	private long readPos;
+	private long cachedHead;
+
+	/**
+	 * @param capacity ring size in words, rounded up to a power of two
+	 * @param interrupts raised on line while there is data
+	 */
+	public InputQueue(int capacity, InterruptController interrupts, int line) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring       = new char[size];
+		this.mask       = size - 1;
+		this.interrupts = interrupts;
+		this.line       = line;
+	}
+
+	/**
+	 * (producer) push a word for the guest, never blocks
+	 * @return false if the queue is full (the word is dropped)
+	 */
+	public boolean offer(int value) {
+		long pos = writePos;
+		if (pos - cachedTail >= ring.length && pos - (cachedTail = tail.get()) >= ring.length) return false;
+		ring[(int) pos & mask] = (char) value;
+		writePos = pos + 1;
+		head.lazySet(pos + 1); // publish
+		interrupts.raise(line);
+		return true;
+	}
+
+	/**
+	 * (producer) push as many of these bytes as fit, one word each (e.g. a line of text)
+	 * @return how many were pushed
+	 */
+	public int offer(byte[] bytes, int offset, int length) {
+		long pos = writePos;
+		int free = ring.length - (int) (pos - (cachedTail = tail.get()));
+		int count = Math.min(free, length);
+		for (int i = 0; i < count; i++) ring[(int) (pos + i) & mask] = (char) (bytes[offset + i] & 0xFF);
+		if (count == 0) return 0;
+		writePos = pos + count;
+		head.lazySet(pos + count);
+		interrupts.raise(line);
+		return count;
+	}
+
+	/** words waiting, from any thread (a snapshot) */
+	public int available() {
+		return (int) (head.get() - tail.get());
+	}
+
+	public int capacity() {
+		return ring.length;
+	}
+
+	// (consumer) words waiting, the producer's position is only read again when the cached one says empty
+	private int count() {
+		if (cachedHead == readPos) cachedHead = head.get();
+		return (int) (cachedHead - readPos);
+	}
+
+	// (consumer) the next word, 0 if there is none
+	private int poll() {
+		if (count() == 0) return 0;
+		char value = ring[(int) readPos & mask];
+		tail.lazySet(++readPos);
+		if (readPos == cachedHead && (cachedHead = head.get()) == readPos) {
+			// drained: lower the line, unless something came in meanwhile (its raise may be before ours)
+			interrupts.lower(line);
+			if (head.get() != readPos) interrupts.raise(line);
+		}
+		return value;
+	}
+
+	/** (consumer, while the machine doesn't run) drop everything that is waiting */
+	public void clear() {
+		readPos = cachedHead = head.get();
+		tail.lazySet(readPos);
+		interrupts.lower(line);
+		if (head.get() != readPos) interrupts.raise(line);
+	}
+
+	@Override
+	public int read(int offset) {
+		switch (offset) {
+		case COUNT:
+			return Math.min(count(), 0xFF);
+		case NEXT:
+			return poll() & 0xFF;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public int readHalf(int offset) {
+		switch (offset) {
+		case COUNT:
+			return Math.min(count(), 0xFFFF);
+		case NEXT:
+			return poll();
+		default:
+			return 0;
+		}
+	}
+
+	/** the queue is read only */
+	@Override
+	public void write(int offset, int value) {}
+
+	@Override
+	public void writeHalf(int offset, int value) {}
+
+	@Override
+	public boolean pure(int offset) {
+		return offset == COUNT;
+	}
+}
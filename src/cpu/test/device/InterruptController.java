@@ -0,0 +1,83 @@
+package cpu.test.device;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The interrupt lines of one machine and their vector table.
+ * <p>
+ * Any thread may raise a line (the timer wheel, the host, devices), only the machine's own thread
+ * sets vectors and takes interrupts. A raised line stays pending until the machine takes it (or the device
+ * lowers it), raising it again meanwhile is a no-op. A line without a vector is masked: it can be raised, but it doesn't
+ * wake a WAIT and it's never delivered
+ */
+public final class InterruptController {
+	public static final int LINES = 8;
+	/** the line of the machine's timer (see Timer) */
+	public static final int TIMER = 0;
+	/** the line of the machine's input queue (see InputQueue), raised while it holds data */
+	public static final int INPUT = 1;
+
+	// one bit per raised line
+	private final AtomicInteger raised = new AtomicInteger();
+	private final char[] vectors = new char[LINES];
+	private int vectored = 0; // one bit per line with a vector
+
+	// wakes the machine's thread up (it may be parked in WAIT)
+	private final Runnable wake;
+
+	/** @param wake called after every raise, on the raising thread */
+	public InterruptController(Runnable wake) {
+		this.wake = wake;
+	}
+
+	/** raise a line, from any thread */
+	public void raise(int line) {
+		if (line < 0 || line >= LINES) throw new IllegalArgumentException("No such interrupt line: " + line);
+		raised.getAndUpdate(bits -> bits | 1 << line);
+		wake.run();
+	}
+
+	/** clear a line that is no longer true (e.g. a drained queue), from any thread, doesn't wake anything */
+	public void lower(int line) {
+		raised.getAndUpdate(bits -> bits & ~(1 << line));
+	}
+
+	/** (machine thread) the handler address of a line, false if there's no such line */
+	public boolean vector(int line, int address) {
+		if (line < 0 || line >= LINES) return false;
+		vectors[line] = (char) address;
+		vectored |= 1 << line;
+		return true;
+	}
+
+	public int vector(int line) {
+		return vectors[line];
+	}
+
+	/** (machine thread) the lines that have a vector, one bit per line */
+	public int vectored() {
+		return vectored;
+	}
+
+	/** the raised lines that have a vector, one bit per line */
+	public int pending() {
+		return raised.get() & vectored;
+	}
+
+	/** (machine thread) acknowledge the lowest pending line and return it, -1 if none is pending */
+	public int take() {
+		int lines = pending();
+		if (lines == 0) return -1;
+		int line = Integer.numberOfTrailingZeros(lines);
+		raised.getAndUpdate(bits -> bits & ~(1 << line));
+		return line;
+	}
+
+	/** nothing raised, no vectors */
+	public void reset() {
+		raised.set(0);
+		vectored = 0;
+		Arrays.fill(vectors, (char) 0);
+	}
+}
@@ -0,0 +1,39 @@
+package cpu.test.device;
+
+/**
+ * The programmable timer of a machine (the TMR instruction): raises its interrupt line every period
+ * milliseconds, scheduled on the shared {@link TimerWheel}
+ */
+public final class Timer {
+	private final InterruptController interrupts;
+	private final int        line;
+	private final TimerWheel wheel;
+
+	private TimerWheel.Timeout timeout = null;
+	private int period = 0;
+
+	public Timer(InterruptController interrupts, int line, TimerWheel wheel) {
+		this.interrupts = interrupts;
+		this.line       = line;
+		this.wheel      = wheel;
+	}
+
+	/** (re)start the timer with this period in ms (counting from now), 0 stops it */
+	public synchronized void program(int periodMillis) {
+		stop();
+		if (periodMillis <= 0) return;
+		period  = periodMillis;
+		timeout = wheel.schedule(() -> interrupts.raise(line), periodMillis, periodMillis);
+	}
+
+	public synchronized void stop() {
+		if (timeout != null) timeout.cancel();
+		timeout = null;
+		period  = 0;
+	}
+
+	/** the period in ms, 0 if the timer is stopped */
+	public synchronized int period() {
+		return period;
+	}
+}
@@ -0,0 +1,162 @@
+package cpu.test.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel: the timeouts of every machine in the JVM are kept by one daemon thread
+ * ({@link #shared()}) instead of one timer thread per machine.
+ * <p>
+ * Time goes in ticks of {@value #TICK_MILLIS} ms, a timeout sits in the bucket of its deadline
+ * (tick % {@value #BUCKETS}) with the number of full turns left before it's due, so one tick only looks
+ * at one bucket. The thread wakes up once per tick while there are timeouts and parks for good when
+ * there are none. Tasks run on the wheel's thread and must be short (e.g. raise an interrupt line)
+ */
+public final class TimerWheel {
+	public static final int TICK_MILLIS = 1;
+	private static final long TICK_NANOS = TICK_MILLIS * 1_000_000L;
+	private static final int  BUCKETS    = 512;
+
+	private static final TimerWheel SHARED = new TimerWheel("fl516-timer-wheel");
+
+	/** a scheduled task, see {@link #cancel()} */
+	public static final class Timeout {
+		private final TimerWheel wheel;
+		private final Runnable task;
+		private final long     period; // ticks, 0 = once
+		private final long     delay;
+		private long           rounds;
+		private int            bucket = -1; // where it sits, -1 = not placed yet
+		private volatile boolean cancelled = false;
+
+		private Timeout(TimerWheel wheel, Runnable task, long delay, long period) {
+			this.wheel  = wheel;
+			this.task   = task;
+			this.delay  = delay;
+			this.period = period;
+		}
+
+		/** the task won't run again (it may be running right now), the wheel drops it at its next tick */
+		public void cancel() {
+			if (cancelled) return;
+			cancelled = true;
+			wheel.cancelled.add(this);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+	}
+
+	private final String name;
+	private Thread thread = null;
+	// new timeouts, handed over to the wheel's thread
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+	// cancelled timeouts, taken out of their buckets by the wheel's thread (it stops ticking once none are left)
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+	// only touched by the wheel's thread
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final List<Timeout>[] buckets = new List[BUCKETS];
+	private long tick   = 0; // the last tick processed
+	private long origin = 0; // System.nanoTime() of tick 0
+	private int  live   = 0; // timeouts in the buckets
+
+	private TimerWheel(String name) {
+		this.name = name;
+		for (int i = 0; i < BUCKETS; i++) buckets[i] = new ArrayList<>();
+	}
+
+	/** the wheel of the whole JVM */
+	public static TimerWheel shared() {
+		return SHARED;
+	}
+
+	/** run task once, delay ms from now (rounded up to the next tick) */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		return add(new Timeout(this, task, ticks(delayMillis), 0));
+	}
+
+	/** run task every period ms, the first time delay ms from now */
+	public Timeout schedule(Runnable task, long delayMillis, long periodMillis) {
+		if (periodMillis <= 0) throw new IllegalArgumentException("The period must be positive! (got " + periodMillis + ")");
+		return add(new Timeout(this, task, ticks(delayMillis), ticks(periodMillis)));
+	}
+
+	private static long ticks(long millis) {
+		return Math.max(1, (millis + TICK_MILLIS - 1) / TICK_MILLIS);
+	}
+
+	private Timeout add(Timeout timeout) {
+		added.add(timeout);
+		synchronized (this) {
+			if (thread == null) {
+				thread = new Thread(this::run, name);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		LockSupport.unpark(thread);
+		return timeout;
+	}
+
+	private void run() {
+		origin = System.nanoTime();
+		while (true) {
+			// nothing to do: sleep until something is scheduled, the clock starts over from there
+			if (live == 0 && added.isEmpty()) {
+				LockSupport.park(this);
+				origin = System.nanoTime() - tick * TICK_NANOS;
+			}
+			for (Timeout timeout; (timeout = added.poll()) != null;) {
+				if (!timeout.cancelled) place(timeout, tick + timeout.delay);
+			}
+			for (Timeout timeout; (timeout = cancelled.poll()) != null;) {
+				if (timeout.bucket >= 0 && buckets[timeout.bucket].remove(timeout)) live--;
+			}
+			if (live == 0 && added.isEmpty()) continue;
+
+			long wait = origin + (tick + 1) * TICK_NANOS - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue; // woken up early by a new timeout, or it's time
+			}
+			// every tick that elapsed, so a late wake-up (GC, loaded host) still fires everything in order
+			long now = (System.nanoTime() - origin) / TICK_NANOS;
+			while (tick < now) expire(++tick);
+		}
+	}
+
+	private void place(Timeout timeout, long deadline) {
+		timeout.rounds = (deadline - tick - 1) / BUCKETS;
+		timeout.bucket = (int) (deadline % BUCKETS);
+		buckets[timeout.bucket].add(timeout);
+		live++;
+	}
+
+	private void expire(long at) {
+		int index = (int) (at % BUCKETS);
+		List<Timeout> bucket = buckets[index];
+		if (bucket.isEmpty()) return;
+		buckets[index] = new ArrayList<>();
+		for (Timeout timeout : bucket) {
+			live--;
+			if (timeout.cancelled) continue;
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+				buckets[index].add(timeout);
+				live++;
+				continue;
+			}
+			try {
+				timeout.task.run();
+			} catch (RuntimeException e) {
+				System.err.println("[" + name + "] timer task failed: " + e);
+			}
+			if (timeout.period > 0 && !timeout.cancelled) place(timeout, at + timeout.period);
+		}
+	}
+}
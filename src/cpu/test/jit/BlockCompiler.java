@@ -0,0 +1,587 @@
+package cpu.test.jit;
+
+import static cpu.test.Decoder.*;
+import static cpu.test.jit.Bytecode.*;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import cpu.test.Decoder;
+import cpu.test.FL516CPU;
+import cpu.test.jit.Bytecode.Code;
+import cpu.test.jit.Bytecode.Label;
+import cpu.test.memory.MemoryBank;
+
+/**
+ * Compiles a region of FL516 code into a hidden class implementing {@link CompiledBlock}.
+ * <p>
+ * A region starts at a hot entry address and runs straight through the code until an instruction
+ * the compiler does not handle (stack ops, CALL/RET, bank switches, HLT, DBGP, unknown opcodes)
+ * or an unconditional JMP. A store into the program area leaves the block right after the store,
+ * the code that follows may just have been rewritten.
+ * Branches back to the entry and forward into the region stay inside the compiled code,
+ * every other branch target is a side exit back to the interpreter.
+ * <p>
+ * Inside the block the registers and flags live in JVM locals, so HotSpot can keep them in host
+ * registers; they are only written back to the machine when the block exits.
+ * <p>
+ * Counted regions also bump the machine's performance counters (see PerfCounters) like the interpreter
+ * does: one histogram slot per instruction and the taken / not-taken count of every conditional jump
+ */
+final class BlockCompiler {
+	/** at most this many guest instructions per region */
+	static final int MAX_REGION = 64;
+	/** stop sharing compiled blocks between machines past this many */
+	static final int MAX_SHARED = 1 << 14;
+
+	private static final String MACHINE = "cpu/test/Machine";
+	private static final String BLOCK   = "cpu/test/jit/Block";
+	private static final String BANK    = "cpu/test/memory/MemoryBank";
+	private static final String PERF    = "cpu/test/perf/PerfCounters";
+	private static final String PIXELS  = "cpu/test/video/PackedPixels";
+
+	// locals of the generated execute(Machine, int)
+	private static final int L_MACHINE = 1;
+	private static final int L_BUDGET  = 2;
+	private static final int L_REGS    = 3;
+	private static final int L_R0      = 4;  // r0..r9 = 4..13
+	private static final int L_ZFL     = 14;
+	private static final int L_CFL     = 15;
+	private static final int L_OFL     = 16;
+	private static final int L_COUNT   = 17;
+	private static final int L_MEMORY  = 18;
+	private static final int L_NEXT_PC = 19;
+	private static final int L_V1      = 20;
+	private static final int L_V2      = 21;
+	private static final int L_RESULT  = 22;
+	private static final int L_MODE    = 23;
+	private static final int L_CODE    = 24; // the machine's code limit
+	private static final int L_HIST    = 25; // counted regions: the opcode histogram,
+	private static final int L_BRANCH  = 26; // the branch counts
+	private static final int L_BASE    = 27; // and MEMORY_MODE << 8
+
+	// compiled blocks only depend on the code and its address, so machines running the same program share them
+	private static final ConcurrentHashMap<Region, CompiledBlock> SHARED = new ConcurrentHashMap<>();
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private BlockCompiler() {}
+
+	/** the guest code of a region: its entry address, the decoded instructions and whether it updates the counters */
+	static final class Region {
+		final int     entry;
+		final long[]  ops;
+		final boolean counted;
+
+		Region(int entry, long[] ops, boolean counted) {
+			this.entry   = entry;
+			this.ops     = ops;
+			this.counted = counted;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Region && ((Region) other).entry == entry && ((Region) other).counted == counted
+				&& Arrays.equals(((Region) other).ops, ops);
+		}
+
+		@Override
+		public int hashCode() {
+			return (entry * 31 + Arrays.hashCode(ops)) * 2 + (counted ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Find the region starting at {@code entry}
+	 * @param memory bank 0
+	 * @param codeLimit only the program area is compiled (writes there are tracked, see Jit#invalidate)
+	 * @param counted   the compiled code updates the machine's performance counters
+	 * @return the region, or null if not even its first instruction can be compiled
+	 */
+	static Region region(MemoryBank memory, int entry, int codeLimit, boolean counted) {
+		List<Long> ops = new ArrayList<>();
+		for (int pc = entry; ops.size() < MAX_REGION && pc + 5 <= codeLimit; pc += 5) {
+			long op = Decoder.decode(memory, pc);
+			if (!compilable(op)) break;
+			ops.add(op);
+			if (dense(op) == OP_JMP) break;
+		}
+		if (ops.isEmpty()) return null;
+		return new Region(entry, ops.stream().mapToLong(Long::longValue).toArray(), counted);
+	}
+
+	private static boolean compilable(long op) {
+		int a = opr1(op), b = opr2(op);
+		switch (dense(op)) {
+		case OP_NOP:
+			return true;
+		case OP_MOV:
+			return a < 10 && (b < 10 || b == 0xFF);
+		case OP_LMH: case OP_LMB: case OP_SMH: case OP_SMB:
+		case OP_ADD: case OP_SUB: case OP_MUL: case OP_DIV: case OP_MOD:
+		case OP_AND: case OP_OR: case OP_XOR: case OP_SHR: case OP_SHL:
+		case OP_CMP:
+		case OP_PSET: case OP_PGET:
+			return a < 10 && b < 10;
+		case OP_LDI:
+		case OP_ADDI: case OP_SUBI: case OP_MULI: case OP_DIVI: case OP_MODI:
+		case OP_ANDI: case OP_ORI: case OP_XORI: case OP_SHRI: case OP_SHLI:
+		case OP_NOT:
+			return a < 10;
+		case OP_JEQ: case OP_JNE: case OP_JLT: case OP_JGT: case OP_JLE: case OP_JGE:
+			return true;
+		case OP_JMP:
+			return a % 5 == 0; // the interpreter warns about misaligned jumps
+		default:
+			return false;
+		}
+	}
+
+	/** compile (or reuse the shared copy of) the region */
+	static CompiledBlock compile(Region region) {
+		CompiledBlock block = SHARED.get(region);
+		if (block != null) return block;
+		block = define(region);
+		if (SHARED.size() < MAX_SHARED) {
+			CompiledBlock raced = SHARED.putIfAbsent(region, block);
+			if (raced != null) return raced;
+		}
+		return block;
+	}
+
+	private static CompiledBlock define(Region region) {
+		Bytecode bytecode = new Bytecode(BLOCK, "cpu/test/jit/CompiledBlock");
+		bytecode.method(ACC_PUBLIC, "execute", "(Lcpu/test/Machine;I)I", new Emitter(bytecode, region).emit());
+		try {
+			Class<?> type = LOOKUP.defineHiddenClass(bytecode.toByteArray(), true).lookupClass();
+			return (CompiledBlock) type.getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not define the compiled block at " + region.entry, e);
+		}
+	}
+
+	/** translates the instructions of one region */
+	private static final class Emitter {
+		private final Code   code;
+		private final int    entry;
+		private final long[] ops;
+		private final int    end; // address right after the region
+		private final boolean counted;
+
+		private final Label   head;
+		private final Label   exit;
+		private final Label[] starts; // one per instruction, for branches into the region
+		private final List<Runnable> stubs = new ArrayList<>(); // out of line code, emitted after the body
+		private int pending; // instructions executed since the count was last bumped
+
+		Emitter(Bytecode bytecode, Region region) {
+			this.code   = bytecode.new Code(3);
+			this.entry  = region.entry;
+			this.ops    = region.ops;
+			this.end    = entry + ops.length * 5;
+			this.counted = region.counted;
+			this.head   = code.label();
+			this.exit   = code.label();
+			this.starts = new Label[ops.length];
+			for (int i = 0; i < ops.length; i++) starts[i] = code.label();
+		}
+
+		Code emit() {
+			boolean[] read = new boolean[10], written = new boolean[10];
+			boolean memory = false;
+			for (long op : ops) {
+				int a = opr1(op), b = opr2(op);
+				switch (dense(op)) {
+				case OP_NOP: case OP_JMP:
+				case OP_JEQ: case OP_JNE: case OP_JLT: case OP_JGT: case OP_JLE: case OP_JGE:
+					break;
+				case OP_MOV:
+					written[a] = true;
+					if (b != 0xFF) read[b] = true;
+					break;
+				case OP_LDI:
+					written[a] = true;
+					break;
+				case OP_LMH: case OP_LMB:
+					memory = true;
+					written[a] = read[b] = true;
+					break;
+				case OP_SMH: case OP_SMB:
+					memory = true;
+					read[a] = read[b] = true;
+					break;
+				case OP_CMP: case OP_PSET:
+					read[a] = read[b] = true;
+					break;
+				case OP_PGET:
+					written[a] = read[b] = true;
+					break;
+				case OP_NOT:
+					read[a] = written[a] = true;
+					break;
+				default: // alu, register or immediate
+					read[a] = written[a] = true;
+					if (!immediate(dense(op))) read[b] = true;
+				}
+			}
+
+			// prologue: registers & flags into locals
+			code.aload(L_MACHINE).getfield(MACHINE, "REGS", "[C").astore(L_REGS);
+			for (int r = 0; r < 10; r++) {
+				// written-only registers still have to be defined on every path
+				if (!read[r] && !written[r]) continue;
+				code.aload(L_REGS).iconst(r).op(CALOAD).istore(L_R0 + r);
+			}
+			code.aload(L_MACHINE).getfield(MACHINE, "ZFL", "Z").istore(L_ZFL);
+			code.aload(L_MACHINE).getfield(MACHINE, "CFL", "Z").istore(L_CFL);
+			code.aload(L_MACHINE).getfield(MACHINE, "OFL", "Z").istore(L_OFL);
+			if (memory) {
+				// the bank can't change inside a block (VMS/WMS end the region)
+				code.aload(L_MACHINE).getfield(MACHINE, "MEMORY", "[L" + BANK + ";")
+					.aload(L_MACHINE).getfield(MACHINE, "MEMORY_MODE", "I")
+					.op(AALOAD).astore(L_MEMORY);
+				code.aload(L_MACHINE).getfield(MACHINE, "MEMORY_MODE", "I").istore(L_MODE);
+				code.aload(L_MACHINE).op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "getCodeLimit", "()I")).istore(L_CODE);
+			}
+			if (counted) {
+				code.aload(L_MACHINE).op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "getCounters", "()L" + PERF + ";")).astore(L_HIST);
+				code.aload(L_HIST).getfield(PERF, "branches", "[J").astore(L_BRANCH);
+				code.aload(L_HIST).getfield(PERF, "histogram", "[J").astore(L_HIST);
+				code.aload(L_MACHINE).getfield(MACHINE, "MEMORY_MODE", "I").iconst(8).op(ISHL).istore(L_BASE);
+			}
+			code.iconst(0).istore(L_COUNT);
+			code.iconst(entry).istore(L_NEXT_PC);
+
+			// loop head: one more pass over the region must fit in the budget, and no interrupt may be pending
+			// (taken by the interpreter, like after any other jump)
+			code.place(head);
+			code.iload(L_COUNT).iconst(ops.length).op(IADD).iload(L_BUDGET);
+			code.jump(IF_ICMPGT, exitStub(entry));
+			code.aload(L_MACHINE).op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "interruptPending", "()Z"));
+			code.jump(IFNE, exitStub(entry));
+
+			boolean fallsThrough = true;
+			for (int i = 0; i < ops.length; i++) {
+				flush();
+				code.place(starts[i]);
+				fallsThrough = instruction(ops[i], entry + i * 5);
+			}
+			if (fallsThrough) exitTo(end);
+			for (int i = 0; i < stubs.size(); i++) stubs.get(i).run();
+
+			// epilogue: write everything back
+			code.place(exit);
+			for (int r = 0; r < 10; r++) {
+				if (!written[r]) continue;
+				code.aload(L_REGS).iconst(r).iload(L_R0 + r).op(CASTORE);
+			}
+			code.aload(L_MACHINE).iload(L_ZFL).putfield(MACHINE, "ZFL", "Z");
+			code.aload(L_MACHINE).iload(L_CFL).putfield(MACHINE, "CFL", "Z");
+			code.aload(L_MACHINE).iload(L_OFL).putfield(MACHINE, "OFL", "Z");
+			code.aload(L_MACHINE).iload(L_NEXT_PC).putfield(MACHINE, "PROGRAM_COUNTER", "I");
+			code.iload(L_COUNT).op(IRETURN);
+			return code;
+		}
+
+		private static boolean immediate(int dense) {
+			switch (dense) {
+			case OP_ADDI: case OP_SUBI: case OP_MULI: case OP_DIVI: case OP_MODI:
+			case OP_ANDI: case OP_ORI: case OP_XORI: case OP_SHRI: case OP_SHLI:
+				return true;
+			default:
+				return false;
+			}
+		}
+
+		// array[index]++ on a long[] local, index = the int on the stack
+		private void increment() {
+			code.op(DUP2).op(LALOAD).op(LCONST_1).op(LADD).op(LASTORE);
+		}
+
+		// counted regions: one more execution of this opcode (in the current memory mode, the pixel ops in the
+		// VRAM's, like PerfCounters#count)
+		private void countOpcode(int opcode) {
+			if (opcode == FL516CPU.PSET || opcode == FL516CPU.PGET) code.aload(L_HIST).iconst(FL516CPU.VRAM << 8 | opcode);
+			else code.aload(L_HIST).iload(L_BASE).iconst(opcode).op(IOR);
+			increment();
+		}
+
+		// counted regions: one more taken / not-taken conditional jump
+		private void countBranch(boolean taken) {
+			code.aload(L_BRANCH).iconst(taken ? 1 : 0);
+			increment();
+		}
+
+		// bump the executed instructions count
+		private void flush() {
+			if (pending > 0) code.iinc(L_COUNT, pending);
+			pending = 0;
+		}
+
+		private void exitTo(int pc) {
+			flush();
+			code.iconst(pc).istore(L_NEXT_PC).jump(GOTO, exit);
+		}
+
+		// a label leaving the block at pc (count already up to date)
+		private Label exitStub(int pc) {
+			Label stub = code.label();
+			stubs.add(() -> {
+				code.place(stub);
+				code.iconst(pc).istore(L_NEXT_PC).jump(GOTO, exit);
+			});
+			return stub;
+		}
+
+		// where a taken branch to target goes: back to the head, into the region or out of it
+		private Label branchTarget(int target, int pc) {
+			if (target == entry) return head;
+			if (target > pc && target < end && (target - entry) % 5 == 0) return starts[(target - entry) / 5];
+			return exitStub(target);
+		}
+
+		// push operand 2: an immediate or a register
+		private void operand2(int dense, int b) {
+			if (immediate(dense)) code.iconst(b);
+			else code.iload(L_R0 + b);
+		}
+
+		// local = (value & 0xFFFF) == 0 for the value on the stack
+		private void zeroFlag(int local) {
+			code.op(I2C).iconst(1).op(ISUB).iconst(31).op(IUSHR).istore(local);
+		}
+
+		// push machine.MEMORY[VRAM]
+		private Code vram() {
+			return code.aload(L_MACHINE).getfield(MACHINE, "MEMORY", "[L" + BANK + ";").iconst(FL516CPU.VRAM).op(AALOAD);
+		}
+
+		// self-modifying code: a store into the program area invalidates it and leaves the block.
+		// A store into the VRAM marks its line for the presenter (see Machine#vramWritten)
+		private void codeWritten(int address, int pc, int bytes) {
+			flush();
+			Label skip = code.label(), ram = code.label();
+			code.iload(L_MODE).jump(IFEQ, ram);
+			code.iload(L_MODE).iconst(FL516CPU.VRAM).jump(IF_ICMPNE, skip);
+			code.aload(L_MACHINE).iload(address).iconst(bytes).op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "vramWritten", "(II)V"));
+			code.jump(GOTO, skip);
+			code.place(ram);
+			code.iload(address).iload(L_CODE).jump(IF_ICMPGE, skip);
+			for (int i = 0; i < bytes; i++) {
+				code.aload(L_MACHINE).iload(address);
+				if (i > 0) code.iconst(i).op(IADD);
+				code.op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "invalidateCode", "(I)V"));
+			}
+			code.iconst(pc + 5).istore(L_NEXT_PC).jump(GOTO, exit);
+			code.place(skip);
+		}
+
+		/** @return false if the instruction never falls through */
+		private boolean instruction(long op, int pc) {
+			int dense = dense(op), a = opr1(op), b = opr2(op);
+			int ra = L_R0 + a, rb = L_R0 + b;
+			pending++;
+			if (counted) countOpcode(opcode(op));
+			switch (dense) {
+			case OP_NOP:
+				return true;
+
+			case OP_MOV:
+				if (b == 0xFF) code.iconst((pc + 5) % 65536); // the program counter
+				else code.iload(rb);
+				code.istore(ra);
+				return true;
+
+			case OP_LDI:
+				code.iconst(b).istore(ra);
+				return true;
+
+			case OP_LMB:
+				code.aload(L_MEMORY).iload(rb).op(INVOKEVIRTUAL).u2(code.methodRef(BANK, "getByte", "(I)I")).istore(ra);
+				return true;
+
+			case OP_LMH:
+				code.aload(L_MEMORY).iload(rb).op(INVOKEVIRTUAL).u2(code.methodRef(BANK, "getHalf", "(I)I")).istore(ra);
+				return true;
+
+			case OP_SMB:
+				code.aload(L_MEMORY).iload(ra).iload(rb).op(INVOKEVIRTUAL).u2(code.methodRef(BANK, "setByte", "(II)V"));
+				codeWritten(ra, pc, 1);
+				return true;
+
+			case OP_SMH:
+				code.aload(L_MEMORY).iload(ra).iload(rb).op(INVOKEVIRTUAL).u2(code.methodRef(BANK, "setHalf", "(II)V"));
+				codeWritten(ra, pc, 2);
+				return true;
+
+			// packed pixels, always on the VRAM whatever bank the block uses
+			case OP_PSET:
+				vram().iload(ra).iload(rb).op(INVOKESTATIC).u2(code.methodRef(PIXELS, "set", "(L" + BANK + ";II)V"));
+				code.aload(L_MACHINE).iload(ra).op(INVOKESTATIC).u2(code.methodRef(PIXELS, "address", "(I)I")).iconst(2)
+					.op(INVOKEVIRTUAL).u2(code.methodRef(MACHINE, "vramWritten", "(II)V"));
+				return true;
+
+			case OP_PGET:
+				vram().iload(rb).op(INVOKESTATIC).u2(code.methodRef(PIXELS, "get", "(L" + BANK + ";I)I")).istore(ra);
+				return true;
+
+			case OP_ADD: case OP_ADDI:
+				code.iload(ra).istore(L_V1);
+				operand2(dense, b);
+				code.istore(L_V2);
+				code.iload(L_V1).iload(L_V2).op(IADD).istore(L_RESULT);
+				code.iload(L_RESULT).op(I2C).istore(ra);
+				code.iload(L_RESULT);
+				zeroFlag(L_ZFL);
+				code.iload(L_RESULT).iconst(16).op(IUSHR).istore(L_CFL); // result > 0xFFFF
+				// signed overflow: both operands have the same sign and the result another one
+				code.iload(L_V1).iload(L_RESULT).op(IXOR).iload(L_V2).iload(L_RESULT).op(IXOR).op(IAND)
+					.iconst(15).op(IUSHR).iconst(1).op(IAND).istore(L_OFL);
+				return true;
+
+			case OP_SUB: case OP_SUBI:
+				code.iload(ra).istore(L_V1);
+				operand2(dense, b);
+				code.istore(L_V2);
+				code.iload(L_V1).iload(L_V2).op(ISUB).istore(L_RESULT);
+				code.iload(L_RESULT).op(I2C).istore(ra);
+				code.iload(L_RESULT);
+				zeroFlag(L_ZFL);
+				code.iload(L_RESULT).iconst(31).op(IUSHR).istore(L_CFL); // borrow
+				// signed overflow: the operands have different signs and the result isn't the first one's
+				code.iload(L_V1).iload(L_V2).op(IXOR).iload(L_V1).iload(L_RESULT).op(IXOR).op(IAND)
+					.iconst(15).op(IUSHR).iconst(1).op(IAND).istore(L_OFL);
+				return true;
+
+			case OP_CMP:
+				code.iload(ra).iload(rb).op(ISUB).istore(L_RESULT);
+				code.iload(L_RESULT);
+				zeroFlag(L_ZFL);
+				code.iload(L_RESULT).iconst(31).op(IUSHR).istore(L_CFL);
+				return true;
+
+			case OP_MUL: case OP_MULI: {
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(IMUL).istore(L_RESULT);
+				code.iload(L_RESULT).op(I2C).istore(ra);
+				// OFL = result > 0xFFFF (a signed compare, like the interpreter)
+				Label no = code.label(), done = code.label();
+				code.iload(L_RESULT).iconst(0xFFFF).jump(IF_ICMPLE, no);
+				code.iconst(1).istore(L_OFL).jump(GOTO, done);
+				code.place(no).iconst(0).istore(L_OFL);
+				code.place(done);
+				return true;
+			}
+
+			case OP_DIV: case OP_DIVI: case OP_MOD: case OP_MODI: {
+				int instruction = dense == OP_DIV || dense == OP_DIVI ? IDIV : IREM;
+				if (immediate(dense) && b == 0) {
+					code.iconst(1).istore(L_OFL); // division by zero only sets OFL
+					return true;
+				}
+				if (immediate(dense)) {
+					code.iload(ra).iconst(b).op(instruction).istore(ra);
+					return true;
+				}
+				Label divide = code.label(), done = code.label();
+				code.iload(rb).jump(IFNE, divide);
+				code.iconst(1).istore(L_OFL).jump(GOTO, done);
+				code.place(divide).iload(ra).iload(rb).op(instruction).istore(ra);
+				code.place(done);
+				return true;
+			}
+
+			case OP_AND: case OP_ANDI:
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(IAND).istore(ra);
+				return true;
+
+			case OP_OR: case OP_ORI:
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(IOR).istore(ra);
+				return true;
+
+			case OP_XOR: case OP_XORI:
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(IXOR).istore(ra);
+				return true;
+
+			case OP_SHR: case OP_SHRI:
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(ISHR).istore(ra);
+				return true;
+
+			case OP_SHL: case OP_SHLI:
+				code.iload(ra);
+				operand2(dense, b);
+				code.op(ISHL).op(I2C).istore(ra);
+				return true;
+
+			case OP_NOT:
+				code.iload(ra).iconst(-1).op(IXOR).op(I2C).istore(ra);
+				return true;
+
+			case OP_JMP:
+				if (a == entry) {
+					flush();
+					code.jump(GOTO, head);
+				} else {
+					exitTo(a);
+				}
+				return false;
+
+			default: { // conditional jumps
+				flush();
+				Label taken = counted ? countedBranch(branchTarget(a, pc)) : branchTarget(a, pc);
+				Label skip  = code.label();
+				switch (dense) {
+				case OP_JEQ: // ZFL
+					code.iload(L_ZFL).jump(IFNE, taken);
+					break;
+				case OP_JNE: // !ZFL
+					code.iload(L_ZFL).jump(IFEQ, taken);
+					break;
+				case OP_JLT: // !ZFL && CFL
+					code.iload(L_ZFL).jump(IFNE, skip);
+					code.iload(L_CFL).jump(IFNE, taken);
+					break;
+				case OP_JLE: // ZFL || CFL
+					code.iload(L_ZFL).jump(IFNE, taken);
+					code.iload(L_CFL).jump(IFNE, taken);
+					break;
+				case OP_JGT: // !ZFL && !CFL
+					code.iload(L_ZFL).jump(IFNE, skip);
+					code.iload(L_CFL).jump(IFEQ, taken);
+					break;
+				case OP_JGE: // ZFL || !CFL
+					code.iload(L_ZFL).jump(IFNE, taken);
+					code.iload(L_CFL).jump(IFEQ, taken);
+					break;
+				}
+				code.place(skip);
+				if (counted) countBranch(false);
+				return true;
+			}
+			}
+		}
+
+		// a label counting the taken branch before going on to target
+		private Label countedBranch(Label target) {
+			Label stub = code.label();
+			stubs.add(() -> {
+				code.place(stub);
+				countBranch(true);
+				code.jump(GOTO, target);
+			});
+			return stub;
+		}
+	}
+}
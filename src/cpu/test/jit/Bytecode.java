@@ -0,0 +1,334 @@
+package cpu.test.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer to emit the JIT's blocks: one final class, a default
+ * constructor and methods made of int/array/field instructions and branches.
+ * <p>
+ * Classes are emitted as version 49 (Java 5), the last version verified by type inference,
+ * so branches don't need StackMapTable frames
+ */
+final class Bytecode {
+	static final int VERSION = 49;
+
+	// access flags
+	static final int ACC_PUBLIC = 0x0001;
+	static final int ACC_FINAL  = 0x0010;
+	static final int ACC_SUPER  = 0x0020;
+
+	// opcodes
+	static final int ICONST_0    = 0x03;
+	static final int LCONST_1    = 0x0A;
+	static final int BIPUSH      = 0x10;
+	static final int SIPUSH      = 0x11;
+	static final int LDC_W       = 0x13;
+	static final int ILOAD       = 0x15;
+	static final int ALOAD       = 0x19;
+	static final int LALOAD      = 0x2F;
+	static final int AALOAD      = 0x32;
+	static final int BALOAD      = 0x33;
+	static final int CALOAD      = 0x34;
+	static final int ISTORE      = 0x36;
+	static final int ASTORE      = 0x3A;
+	static final int LASTORE     = 0x50;
+	static final int BASTORE     = 0x54;
+	static final int CASTORE     = 0x55;
+	static final int DUP2        = 0x5C;
+	static final int IADD        = 0x60;
+	static final int LADD        = 0x61;
+	static final int ISUB        = 0x64;
+	static final int IMUL        = 0x68;
+	static final int IDIV        = 0x6C;
+	static final int IREM        = 0x70;
+	static final int ISHL        = 0x78;
+	static final int ISHR        = 0x7A;
+	static final int IUSHR       = 0x7C;
+	static final int IAND        = 0x7E;
+	static final int IOR         = 0x80;
+	static final int IXOR        = 0x82;
+	static final int IINC        = 0x84;
+	static final int I2C         = 0x92;
+	static final int IFEQ        = 0x99;
+	static final int IFNE        = 0x9A;
+	static final int IFLT        = 0x9B;
+	static final int IFGE        = 0x9C;
+	static final int IFGT        = 0x9D;
+	static final int IFLE        = 0x9E;
+	static final int IF_ICMPEQ   = 0x9F;
+	static final int IF_ICMPNE   = 0xA0;
+	static final int IF_ICMPLT   = 0xA1;
+	static final int IF_ICMPGE   = 0xA2;
+	static final int IF_ICMPGT   = 0xA3;
+	static final int IF_ICMPLE   = 0xA4;
+	static final int GOTO        = 0xA7;
+	static final int IRETURN     = 0xAC;
+	static final int RETURN      = 0xB1;
+	static final int GETFIELD    = 0xB4;
+	static final int PUTFIELD    = 0xB5;
+	static final int INVOKEVIRTUAL = 0xB6;
+	static final int INVOKESPECIAL = 0xB7;
+	static final int INVOKESTATIC  = 0xB8;
+	static final int WIDE        = 0xC4;
+
+	// constant pool tags
+	private static final int TAG_UTF8        = 1;
+	private static final int TAG_INTEGER     = 3;
+	private static final int TAG_CLASS       = 7;
+	private static final int TAG_FIELD       = 9;
+	private static final int TAG_METHOD      = 10;
+	private static final int TAG_NAME_TYPE   = 12;
+
+	private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+	private final DataOutputStream pool = new DataOutputStream(poolBytes);
+	private final Map<String, Integer> poolIndex = new HashMap<>();
+	private int poolCount = 1;
+
+	private final String className;
+	private final List<String> interfaces = new ArrayList<>();
+	private final List<byte[]> methods = new ArrayList<>();
+
+	/** @param className internal name, e.g. cpu/test/jit/Block */
+	Bytecode(String className, String... interfaces) {
+		this.className = className;
+		for (String i : interfaces) this.interfaces.add(i);
+		// public no-arg constructor
+		Code init = new Code(1);
+		init.aload(0);
+		init.op(INVOKESPECIAL).u2(methodRef("java/lang/Object", "<init>", "()V"));
+		init.op(RETURN);
+		method(ACC_PUBLIC, "<init>", "()V", init);
+	}
+
+	/* constant pool */
+
+	private int constant(String key, int tag, Entry writer) {
+		Integer index = poolIndex.get(key);
+		if (index != null) return index;
+		try {
+			pool.writeByte(tag);
+			writer.write(pool);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		poolIndex.put(key, poolCount);
+		return poolCount++;
+	}
+
+	private interface Entry {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	int utf8(String value) {
+		return constant("U" + value, TAG_UTF8, out -> out.writeUTF(value));
+	}
+
+	int classRef(String name) {
+		int utf = utf8(name);
+		return constant("C" + name, TAG_CLASS, out -> out.writeShort(utf));
+	}
+
+	int integer(int value) {
+		return constant("I" + value, TAG_INTEGER, out -> out.writeInt(value));
+	}
+
+	int nameAndType(String name, String descriptor) {
+		int n = utf8(name), d = utf8(descriptor);
+		return constant("N" + name + ":" + descriptor, TAG_NAME_TYPE, out -> {
+			out.writeShort(n);
+			out.writeShort(d);
+		});
+	}
+
+	int fieldRef(String owner, String name, String descriptor) {
+		int c = classRef(owner), nt = nameAndType(name, descriptor);
+		return constant("F" + owner + "." + name + ":" + descriptor, TAG_FIELD, out -> {
+			out.writeShort(c);
+			out.writeShort(nt);
+		});
+	}
+
+	int methodRef(String owner, String name, String descriptor) {
+		int c = classRef(owner), nt = nameAndType(name, descriptor);
+		return constant("M" + owner + "." + name + descriptor, TAG_METHOD, out -> {
+			out.writeShort(c);
+			out.writeShort(nt);
+		});
+	}
+
+	/* class structure */
+
+	void method(int access, String name, String descriptor, Code code) {
+		code.resolveLabels();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeShort(access);
+			out.writeShort(utf8(name));
+			out.writeShort(utf8(descriptor));
+			out.writeShort(1); // attributes: Code
+			out.writeShort(utf8("Code"));
+			out.writeInt(12 + code.length);
+			out.writeShort(code.maxStack);
+			out.writeShort(code.maxLocals);
+			out.writeInt(code.length);
+			out.write(code.buffer, 0, code.length);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		methods.add(bytes.toByteArray());
+	}
+
+	byte[] toByteArray() {
+		int thisClass = classRef(className);
+		int superClass = classRef("java/lang/Object");
+		int[] interfaceRefs = interfaces.stream().mapToInt(this::classRef).toArray();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(poolCount);
+			poolBytes.writeTo(out);
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(interfaceRefs.length);
+			for (int i : interfaceRefs) out.writeShort(i);
+			out.writeShort(0); // fields
+			out.writeShort(methods.size());
+			for (byte[] method : methods) out.write(method);
+			out.writeShort(0); // attributes
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/** a branch target */
+	static final class Label {
+		int position = -1;
+		// (instruction address, offset address) pairs to patch once the label is placed
+		final List<int[]> fixups = new ArrayList<>();
+	}
+
+	/** the code of one method */
+	final class Code {
+		byte[] buffer = new byte[256];
+		int length;
+		int maxStack = 8;
+		int maxLocals;
+		private final List<Label> labels = new ArrayList<>();
+
+		Code(int maxLocals) {
+			this.maxLocals = maxLocals;
+		}
+
+		Code u1(int value) {
+			if (length == buffer.length) buffer = java.util.Arrays.copyOf(buffer, length * 2);
+			buffer[length++] = (byte) value;
+			return this;
+		}
+
+		Code u2(int value) {
+			return u1(value >> 8).u1(value);
+		}
+
+		Code op(int opcode) {
+			return u1(opcode);
+		}
+
+		private void local(int index) {
+			if (index >= maxLocals) maxLocals = index + 1;
+		}
+
+		Code iload(int index) {
+			local(index);
+			return index <= 3 ? op(0x1A + index) : op(ILOAD).u1(index);
+		}
+
+		Code istore(int index) {
+			local(index);
+			return index <= 3 ? op(0x3B + index) : op(ISTORE).u1(index);
+		}
+
+		Code aload(int index) {
+			local(index);
+			return index <= 3 ? op(0x2A + index) : op(ALOAD).u1(index);
+		}
+
+		Code astore(int index) {
+			local(index);
+			return index <= 3 ? op(0x4B + index) : op(ASTORE).u1(index);
+		}
+
+		Code iinc(int index, int delta) {
+			local(index);
+			if (delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) return op(IINC).u1(index).u1(delta);
+			return op(WIDE).op(IINC).u2(index).u2(delta);
+		}
+
+		/** push an int constant with the shortest instruction */
+		Code iconst(int value) {
+			if (value >= -1 && value <= 5) return op(ICONST_0 + value);
+			if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) return op(BIPUSH).u1(value);
+			if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) return op(SIPUSH).u2(value);
+			return op(LDC_W).u2(integer(value));
+		}
+
+		Code getfield(String owner, String name, String descriptor) {
+			return op(GETFIELD).u2(fieldRef(owner, name, descriptor));
+		}
+
+		Code putfield(String owner, String name, String descriptor) {
+			return op(PUTFIELD).u2(fieldRef(owner, name, descriptor));
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			return Bytecode.this.methodRef(owner, name, descriptor);
+		}
+
+		Label label() {
+			Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+
+		Code place(Label label) {
+			label.position = length;
+			return this;
+		}
+
+		/** a branch (if*, goto) to a label, placed now or later */
+		Code jump(int opcode, Label label) {
+			int at = length;
+			op(opcode);
+			label.fixups.add(new int[] { at, length });
+			return u2(0);
+		}
+
+		void resolveLabels() {
+			for (Label label : labels) {
+				if (label.fixups.isEmpty()) continue;
+				if (label.position < 0) throw new IllegalStateException("Branch to a label that was never placed!");
+				for (int[] fixup : label.fixups) {
+					int offset = label.position - fixup[0];
+					if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) throw new IllegalStateException("Branch offset too large!");
+					buffer[fixup[1]]     = (byte) (offset >> 8);
+					buffer[fixup[1] + 1] = (byte) offset;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package cpu.test.jit;
+
+import cpu.test.Machine;
+
+/**
+ * A region of guest code compiled to JVM bytecode (see {@link BlockCompiler}).
+ * Compiled blocks hold no state of their own, the same block can run on any machine that
+ * has the same code at the same address
+ */
+public interface CompiledBlock {
+	/**
+	 * Run the block on the machine, starting at its entry address.
+	 * Registers, flags and the program counter are written back when the block exits
+	 * @param budget how many guest instructions the block may execute at most
+	 * @return how many guest instructions it executed (0 = it did not run)
+	 */
+	int execute(Machine machine, int budget);
+}
@@ -0,0 +1,133 @@
+package cpu.test.jit;
+
+import java.util.Arrays;
+
+import cpu.test.FL516CPU;
+import cpu.test.Machine;
+
+/**
+ * The per-machine side of the JIT: counts how often every basic block of the program area is entered
+ * and, once a block is hot, runs its compiled version (see {@link BlockCompiler}) instead of interpreting it.
+ * <p>
+ * The interpreter calls {@link #run(int)} after every control transfer (JMP, Jcc, CALL, RET), which is
+ * where basic blocks start. Compiled blocks chain into each other until they reach code that can't be
+ * compiled, the budget runs out or an interrupt is pending, then the interpreter takes over again.
+ * Writes into the program area drop the compiled blocks covering it ({@link #invalidate(int)})
+ */
+public final class Jit {
+	/** block entries before a block is compiled */
+	public static int HOT_THRESHOLD = Integer.getInteger("fl516.jit.threshold", 500);
+
+	/**
+	 * the most instructions one call into a block may run. Short calls are cheap and make HotSpot
+	 * compile the blocks from their normal entry instead of only on-stack-replacing their loops,
+	 * which produces noticeably slower code
+	 */
+	static final int MAX_CALL = 4096;
+
+	// marks a block entry the compiler can't do anything with
+	private static final CompiledBlock UNCOMPILABLE = (machine, budget) -> 0;
+
+	private final Machine machine;
+	private final int codeLimit;
+
+	// indexed by instruction slot (address / 5)
+	private final int[]           heat;
+	private final CompiledBlock[] blocks;
+	private final int[]           blockEnd; // first slot after the block starting there
+	private final long[]          covered;  // bitmap, slots inside any block
+
+	private int compiled = 0;
+	// the program area was written since the program was loaded
+	private boolean codeWritten = false;
+
+	/**
+	 * @param machine   the machine, bank 0 holds the program
+	 * @param codeLimit size of the program area (the bytes of bank 0 whose writes are tracked)
+	 */
+	public Jit(Machine machine, int codeLimit) {
+		this.machine   = machine;
+		this.codeLimit = codeLimit;
+		int slots      = codeLimit / 5;
+		this.heat      = new int[slots];
+		this.blocks    = new CompiledBlock[slots];
+		this.blockEnd  = new int[slots];
+		this.covered   = new long[(slots + 63) / 64];
+	}
+
+	/**
+	 * Run compiled code from the current program counter, if there's any (and it's hot)
+	 * @return how many guest instructions were executed, 0 = the interpreter goes on as usual
+	 */
+	public int run(int budget) {
+		int executed = 0;
+		while (executed < budget) {
+			// a raised interrupt line is taken between blocks, like the interpreter does after a control transfer
+			if (machine.interruptPending()) break;
+			int pc   = machine.PROGRAM_COUNTER;
+			int slot = pc / 5;
+			if (slot * 5 != pc || slot >= blocks.length) break;
+			CompiledBlock block = blocks[slot];
+			if (block == null) {
+				if (++heat[slot] < HOT_THRESHOLD) break;
+				block = compile(slot);
+			}
+			int n = block.execute(machine, Math.min(budget - executed, MAX_CALL));
+			if (n == 0) break;
+			executed += n;
+		}
+		return executed;
+	}
+
+	private CompiledBlock compile(int slot) {
+		BlockCompiler.Region region = BlockCompiler.region(machine.MEMORY[FL516CPU.RAM], slot * 5, codeLimit, machine.getCounters() != null);
+		CompiledBlock block = region == null ? UNCOMPILABLE : BlockCompiler.compile(region);
+		int end = slot + (region == null ? 1 : region.ops.length);
+		blocks[slot]   = block;
+		blockEnd[slot] = end;
+		for (int s = slot; s < end; s++) covered[s >>> 6] |= 1L << s;
+		if (block != UNCOMPILABLE) compiled++;
+		return block;
+	}
+
+	/** the byte at address (of bank 0) changed, drop every block containing it */
+	public void invalidate(int address) {
+		if (address < 0 || address >= codeLimit) return;
+		codeWritten = true;
+		int slot = address / 5;
+		if (slot >= blocks.length || (covered[slot >>> 6] & (1L << slot)) == 0) return;
+		Arrays.fill(covered, 0);
+		for (int s = 0; s < blocks.length; s++) {
+			if (blocks[s] == null) continue;
+			if (s <= slot && slot < blockEnd[s]) {
+				if (blocks[s] != UNCOMPILABLE) compiled--;
+				blocks[s] = null;
+				heat[s] = 0;
+				continue;
+			}
+			for (int c = s; c < blockEnd[s]; c++) covered[c >>> 6] |= 1L << c;
+		}
+	}
+
+	/** forget everything */
+	public void clear() {
+		Arrays.fill(heat, 0);
+		Arrays.fill(blocks, null);
+		Arrays.fill(covered, 0);
+		compiled = 0;
+		codeWritten = false;
+	}
+
+	/**
+	 * The program area was restored from the ROM (machine reset). The compiled blocks are still good
+	 * unless the program rewrote its code since it was loaded
+	 */
+	public void reset() {
+		if (codeWritten) clear();
+	}
+
+	/** how many blocks of this machine are running compiled code */
+	public int compiledBlocks() {
+		return compiled;
+	}
+}
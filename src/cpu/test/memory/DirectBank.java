@@ -0,0 +1,139 @@
+package cpu.test.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An off-heap bank (direct buffer). Half-words are read and written with one big-endian
+ * 16-bit access instead of two byte accesses.
+ * <p>
+ * A bank made with a {@link SharedCode} reads the program area straight from the shared image
+ * until the guest writes into it (self-modifying code), then it takes a private copy of the code
+ * and goes on as a normal bank. Loading the same program again (reset) re-attaches the image
+ */
+public final class DirectBank extends MemoryBank {
+	// big-endian half-words, plain accesses may be unaligned
+	private static final VarHandle HALF = MethodHandles.byteBufferViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+	private final ByteBuffer data = ByteBuffer.allocateDirect(SIZE);
+
+	// what fill() puts, FILL_CHUNK bytes of fillValue
+	private static final int FILL_CHUNK = 1024;
+	private final byte[] fillChunk = new byte[FILL_CHUNK];
+	private byte fillValue = 0;
+
+	// the shared program image, reads below sharedLimit come from it (0 = not attached)
+	private final SharedCode shared;
+	private final ByteBuffer code;
+	private int sharedLimit = 0;
+
+	public DirectBank() {
+		this(null);
+	}
+
+	/** @param shared program image to share with other banks, the machine attaches it when it loads that program */
+	public DirectBank(SharedCode shared) {
+		this.shared = shared;
+		this.code   = shared == null ? null : shared.image.duplicate();
+	}
+
+	@Override
+	public int getByte(int address) {
+		if (address < sharedLimit) return code.get(address) & 0xFF;
+		return data.get(address) & 0xFF;
+	}
+
+	@Override
+	public int getHalf(int address) {
+		if (address < sharedLimit) {
+			if (address + 1 < sharedLimit) return (short) HALF.get(code, address) & 0xFFFF;
+			return (getByte(address) << 8) | getByte(address + 1); // straddles the end of the image
+		}
+		return (short) HALF.get(data, address) & 0xFFFF;
+	}
+
+	@Override
+	public void setByte(int address, int value) {
+		if (address < sharedLimit) detach();
+		data.put(address, (byte) value);
+	}
+
+	@Override
+	public void setHalf(int address, int value) {
+		if (address < sharedLimit) detach();
+		HALF.set(data, address, (short) value);
+	}
+
+	@Override
+	public void read(int address, byte[] dst, int offset, int length) {
+		if (address < sharedLimit) {
+			for (int i = 0; i < length; i++) dst[offset + i] = (byte) getByte(address + i);
+			return;
+		}
+		data.get(address, dst, offset, length);
+	}
+
+	@Override
+	public void write(int address, byte[] src, int offset, int length) {
+		if (address < sharedLimit) detach();
+		data.put(address, src, offset, length);
+	}
+
+	// between two off-heap banks (this one too): one bulk put, overlapping ranges are copied like memmove does
+	@Override
+	public void copy(int address, MemoryBank to, int toAddress, int length) {
+		if (!(to instanceof DirectBank) || address < sharedLimit) {
+			super.copy(address, to, toAddress, length);
+			return;
+		}
+		DirectBank target = (DirectBank) to;
+		if (toAddress < target.sharedLimit) target.detach();
+		target.data.put(toAddress, target == this ? data.duplicate() : data, address, length);
+	}
+
+	// bulk puts of a chunk holding the value
+	@Override
+	public void fill(int address, int length, int value) {
+		if (address < sharedLimit) detach();
+		if ((byte) value != fillValue) {
+			fillValue = (byte) value;
+			Arrays.fill(fillChunk, fillValue);
+		}
+		for (int done = 0; done < length; done += FILL_CHUNK) {
+			data.put(address + done, fillChunk, 0, Math.min(FILL_CHUNK, length - done));
+		}
+	}
+
+	@Override
+	public void loadProgram(byte[] rom) {
+		if (shared != null && shared.isImageOf(rom)) {
+			// whatever the private copy holds below the limit is hidden by the image again
+			sharedLimit = rom.length;
+			return;
+		}
+		sharedLimit = 0;
+		super.loadProgram(rom);
+	}
+
+	/** true while the program area is read from the shared image */
+	public boolean isSharingCode() {
+		return sharedLimit > 0;
+	}
+
+	// take a private copy of the shared code, the guest is about to write over it
+	private void detach() {
+		ByteBuffer image = code.duplicate().limit(sharedLimit);
+		data.put(0, image, 0, sharedLimit);
+		sharedLimit = 0;
+	}
+
+	/** a view of the off-heap memory itself (a shared image is copied in first, so the view is complete) */
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		if (sharedLimit > 0) detach();
+		return data.asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,60 @@
+package cpu.test.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/** A bank backed by a plain byte array, the emulator's original memory model */
+public final class HeapBank extends MemoryBank {
+	private final byte[] data = new byte[SIZE];
+
+	@Override
+	public int getByte(int address) {
+		return data[address] & 0xFF; // prevent sign extension
+	}
+
+	@Override
+	public int getHalf(int address) {
+		// merge two consecutive bytes into one 16-bit value
+		// example: CA, FE
+		// 1) CA << 8 => CA00  (CA left by 8 bits, pad 8 bits to the right)
+		// 2) CA00 | (FE & 0xFF) => CAFE (OR merges) [0xFF to prevent sign extension, only get the 2 bytes)
+		return ((data[address] & 0xFF) << 8) | (data[address + 1] & 0xFF);
+	}
+
+	@Override
+	public void setByte(int address, int value) {
+		data[address] = (byte) value;
+	}
+
+	@Override
+	public void setHalf(int address, int value) {
+		data[address]     = (byte) (value >> 8); // high byte
+		data[address + 1] = (byte) value; // low byte
+	}
+
+	@Override
+	public void read(int address, byte[] dst, int offset, int length) {
+		System.arraycopy(data, address, dst, offset, length);
+	}
+
+	@Override
+	public void write(int address, byte[] src, int offset, int length) {
+		System.arraycopy(src, offset, data, address, length);
+	}
+
+	// one arraycopy, whatever the other bank is (arraycopy handles overlapping ranges of the same array)
+	@Override
+	public void copy(int address, MemoryBank to, int toAddress, int length) {
+		to.write(toAddress, data, address, length);
+	}
+
+	@Override
+	public void fill(int address, int length, int value) {
+		Arrays.fill(data, address, address + length, (byte) value);
+	}
+
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+}
@@ -0,0 +1,78 @@
+package cpu.test.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One 64KB bank of guest memory (the machine has two: working RAM and VRAM).
+ * <p>
+ * Backends:
+ * <ul>
+ * <li>{@link HeapBank}, a plain {@code byte[]} (default)</li>
+ * <li>{@link DirectBank}, off-heap, 16-bit accesses are single big-endian loads/stores,
+ * can share a read-only program image with other machines and hand itself to the host with no copy</li>
+ * <li>{@link PagedBank}, 256-byte pages shared copy-on-write, for cheap snapshots and forks</li>
+ * </ul>
+ * Pick the default with {@code -Dfl516.memory=heap|direct|paged}.
+ * <p>
+ * Addresses are not masked: like the old arrays, anything outside 0..0xFFFF (e.g. a half-word at 0xFFFF)
+ * throws an {@link IndexOutOfBoundsException}
+ */
+public abstract class MemoryBank {
+	/** bytes per bank, 16-bit addresses */
+	public static final int SIZE = 0xFFFF + 1;
+
+	/** a new zeroed bank of the default backend */
+	public static MemoryBank create() {
+		String backend = System.getProperty("fl516.memory", "heap");
+		switch (backend) {
+		case "heap":   return new HeapBank();
+		case "direct": return new DirectBank();
+		case "paged":  return new PagedBank();
+		default: throw new IllegalArgumentException("Unknown memory backend \"" + backend + "\" (heap, direct or paged)");
+		}
+	}
+
+	/** the unsigned byte at address */
+	public abstract int getByte(int address);
+
+	/** the unsigned big-endian half-word at address (MSB at address, LSB at address + 1) */
+	public abstract int getHalf(int address);
+
+	/** store the low 8 bits of value */
+	public abstract void setByte(int address, int value);
+
+	/** store the low 16 bits of value, big-endian */
+	public abstract void setHalf(int address, int value);
+
+	/** copy length bytes of the bank, starting at address, into dst */
+	public abstract void read(int address, byte[] dst, int offset, int length);
+
+	/** copy length bytes of src into the bank, starting at address */
+	public abstract void write(int address, byte[] src, int offset, int length);
+
+	/**
+	 * copy length bytes starting at address into a bank (this one too, the ranges may then overlap) at
+	 * toAddress, as one bulk copy when the backends allow it
+	 */
+	public void copy(int address, MemoryBank to, int toAddress, int length) {
+		byte[] bytes = new byte[length];
+		read(address, bytes, 0, length);
+		to.write(toAddress, bytes, 0, length);
+	}
+
+	/** store the low 8 bits of value into length bytes, starting at address */
+	public void fill(int address, int length, int value) {
+		for (int i = 0; i < length; i++) setByte(address + i, value);
+	}
+
+	/** put the program image at address 0 (machine load / reset) */
+	public void loadProgram(byte[] rom) {
+		write(0, rom, 0, rom.length);
+	}
+
+	/**
+	 * A read-only view of the whole bank for the host (e.g. a renderer reading VRAM), no copy is made
+	 * so it always shows the current contents
+	 */
+	public abstract ByteBuffer asReadOnlyBuffer();
+}
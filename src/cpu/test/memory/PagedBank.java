@@ -0,0 +1,184 @@
+package cpu.test.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A bank split into 256-byte pages that are shared copy-on-write between forks.
+ * <p>
+ * {@link #fork()} only copies the page table: afterwards neither side owns any page, and the first
+ * write into a page gives the writer its private copy of that page. A shared page is never written
+ * again, so forks can run on different threads (a bank itself, like every bank, belongs to one thread).
+ * Untouched pages all point to one zero page, an empty bank costs a page table and nothing else
+ */
+public final class PagedBank extends MemoryBank {
+	public static final int PAGE_BITS = 8;
+	public static final int PAGE_SIZE = 1 << PAGE_BITS;
+	public static final int PAGES     = SIZE >> PAGE_BITS;
+	private static final int OFFSET   = PAGE_SIZE - 1;
+
+	// the all-zero page, shared by every bank and never owned
+	static final byte[] ZERO = new byte[PAGE_SIZE];
+
+	private final byte[][]  pages;
+	// pages this bank may write in place, the rest are shared (with forks or ZERO)
+	private final boolean[] owned;
+
+	/** a zeroed bank */
+	public PagedBank() {
+		this(new byte[PAGES][], new boolean[PAGES]);
+		Arrays.fill(pages, ZERO);
+	}
+
+	private PagedBank(byte[][] pages, boolean[] owned) {
+		this.pages = pages;
+		this.owned = owned;
+	}
+
+	/** a paged copy of any bank */
+	public static PagedBank copyOf(MemoryBank bank) {
+		if (bank instanceof PagedBank) return ((PagedBank) bank).fork();
+		PagedBank copy = new PagedBank();
+		byte[] page = new byte[PAGE_SIZE];
+		for (int p = 0; p < PAGES; p++) {
+			bank.read(p << PAGE_BITS, page, 0, PAGE_SIZE);
+			copy.setPage(p, page);
+		}
+		return copy;
+	}
+
+	/**
+	 * A copy of this bank sharing all of its pages, O(pages) no matter how much memory is in use.
+	 * Both banks copy a page the first time they write into it
+	 */
+	public PagedBank fork() {
+		for (int p = 0; p < PAGES; p++) {
+			if (owned[p]) owned[p] = false; // a bank that never writes (a snapshot) is never written here either
+		}
+		return new PagedBank(pages.clone(), new boolean[PAGES]);
+	}
+
+	/** true if the page was never written (or only copied in as zeros), e.g. to leave it out of a snapshot file */
+	public boolean isZeroPage(int index) {
+		return pages[index] == ZERO;
+	}
+
+	// replace a page with a copy of src (all-zero pages go back to the shared zero page)
+	private void setPage(int index, byte[] src) {
+		if (Arrays.equals(src, 0, PAGE_SIZE, ZERO, 0, PAGE_SIZE)) {
+			pages[index] = ZERO;
+			owned[index] = false;
+			return;
+		}
+		writable(index);
+		System.arraycopy(src, 0, pages[index], 0, PAGE_SIZE);
+	}
+
+	// the page, copied first if it's shared
+	private byte[] writable(int index) {
+		if (!owned[index]) {
+			pages[index] = pages[index].clone();
+			owned[index] = true;
+		}
+		return pages[index];
+	}
+
+	@Override
+	public int getByte(int address) {
+		return pages[address >> PAGE_BITS][address & OFFSET] & 0xFF;
+	}
+
+	@Override
+	public int getHalf(int address) {
+		byte[] page = pages[address >> PAGE_BITS];
+		int offset = address & OFFSET;
+		if (offset == OFFSET) return (getByte(address) << 8) | getByte(address + 1); // straddles two pages
+		return ((page[offset] & 0xFF) << 8) | (page[offset + 1] & 0xFF);
+	}
+
+	@Override
+	public void setByte(int address, int value) {
+		writable(address >> PAGE_BITS)[address & OFFSET] = (byte) value;
+	}
+
+	@Override
+	public void setHalf(int address, int value) {
+		int offset = address & OFFSET;
+		if (offset == OFFSET) { // straddles two pages
+			setByte(address, value >> 8);
+			setByte(address + 1, value);
+			return;
+		}
+		byte[] page = writable(address >> PAGE_BITS);
+		page[offset]     = (byte) (value >> 8); // high byte
+		page[offset + 1] = (byte) value; // low byte
+	}
+
+	@Override
+	public void read(int address, byte[] dst, int offset, int length) {
+		if (address < 0 || length < 0 || address + length > SIZE) throw new IndexOutOfBoundsException(address + length);
+		while (length > 0) {
+			int chunk = Math.min(length, PAGE_SIZE - (address & OFFSET));
+			System.arraycopy(pages[address >> PAGE_BITS], address & OFFSET, dst, offset, chunk);
+			address += chunk;
+			offset  += chunk;
+			length  -= chunk;
+		}
+	}
+
+	@Override
+	public void write(int address, byte[] src, int offset, int length) {
+		if (address < 0 || length < 0 || address + length > SIZE) throw new IndexOutOfBoundsException(address + length);
+		while (length > 0) {
+			int chunk = Math.min(length, PAGE_SIZE - (address & OFFSET));
+			System.arraycopy(src, offset, writable(address >> PAGE_BITS), address & OFFSET, chunk);
+			address += chunk;
+			offset  += chunk;
+			length  -= chunk;
+		}
+	}
+
+	// into another bank: one write per page, from the pages themselves
+	@Override
+	public void copy(int address, MemoryBank to, int toAddress, int length) {
+		if (to == this) {
+			super.copy(address, to, toAddress, length); // may overlap
+			return;
+		}
+		if (address < 0 || length < 0 || address + length > SIZE) throw new IndexOutOfBoundsException(address + length);
+		while (length > 0) {
+			int chunk = Math.min(length, PAGE_SIZE - (address & OFFSET));
+			to.write(toAddress, pages[address >> PAGE_BITS], address & OFFSET, chunk);
+			address   += chunk;
+			toAddress += chunk;
+			length    -= chunk;
+		}
+	}
+
+	// whole pages of zeros go back to the shared zero page
+	@Override
+	public void fill(int address, int length, int value) {
+		if (address < 0 || length < 0 || address + length > SIZE) throw new IndexOutOfBoundsException(address + length);
+		while (length > 0) {
+			int offset = address & OFFSET;
+			int chunk  = Math.min(length, PAGE_SIZE - offset);
+			int index  = address >> PAGE_BITS;
+			if (chunk == PAGE_SIZE && (byte) value == 0) {
+				pages[index] = ZERO;
+				owned[index] = false;
+			} else {
+				Arrays.fill(writable(index), offset, offset + chunk, (byte) value);
+			}
+			address += chunk;
+			length  -= chunk;
+		}
+	}
+
+	/** a copy of the bank, the pages are scattered so there is no zero-copy view */
+	@Override
+	public ByteBuffer asReadOnlyBuffer() {
+		byte[] copy = new byte[SIZE];
+		read(0, copy, 0, SIZE);
+		return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+	}
+}
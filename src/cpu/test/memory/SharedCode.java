@@ -0,0 +1,29 @@
+package cpu.test.memory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A program image copied off-heap once and shared read-only by every {@link DirectBank} made with it,
+ * e.g. a pool running the same program on many machines keeps a single copy of the code
+ */
+public final class SharedCode {
+	final byte[]     rom;
+	final ByteBuffer image;
+
+	public SharedCode(byte[] rom) {
+		this.rom = rom.clone();
+		ByteBuffer image = ByteBuffer.allocateDirect(rom.length);
+		image.put(rom).flip();
+		this.image = image.asReadOnlyBuffer();
+	}
+
+	/** size of the image in bytes */
+	public int length() {
+		return rom.length;
+	}
+
+	/** true if this is the image of the given program */
+	public boolean isImageOf(byte[] program) {
+		return program == rom || java.util.Arrays.equals(program, rom);
+	}
+}
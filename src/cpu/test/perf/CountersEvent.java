@@ -0,0 +1,61 @@
+package cpu.test.perf;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Periodic JFR event, one per registered machine (see {@link PerfMonitor}), with the totals of its counters.
+ * Enabled by default once a recording runs, e.g. {@code -XX:StartFlightRecording=filename=fl516.jfr}
+ * then {@code jfr print --events cpu.test.MachineCounters fl516.jfr}
+ */
+@Name("cpu.test.MachineCounters")
+@Label("FL516 Machine Counters")
+@Category("FL516")
+@Description("Performance counters of an emulated FL516 machine")
+@Period("1 s")
+@StackTrace(false)
+final class CountersEvent extends Event {
+	@Label("Machine")
+	String machine;
+
+	@Label("Instructions Retired")
+	long instructionsRetired;
+
+	@Label("Branches Taken")
+	long branchesTaken;
+
+	@Label("Branches Not Taken")
+	long branchesNotTaken;
+
+	@Label("Max Call Depth")
+	int maxCallDepth;
+
+	@Label("Stack Underflows")
+	long stackUnderflows;
+
+	@Label("Interrupts")
+	long interrupts;
+
+	@Label("RAM Reads")
+	long ramReads;
+
+	@Label("RAM Writes")
+	long ramWrites;
+
+	@Label("VRAM Reads")
+	long vramReads;
+
+	@Label("VRAM Writes")
+	long vramWrites;
+
+	@Label("I/O Reads")
+	long ioReads;
+
+	@Label("I/O Writes")
+	long ioWrites;
+}
@@ -0,0 +1,152 @@
+package cpu.test.perf;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sampling profiler of the guest program: a daemon thread looks at the machine's PROGRAM_COUNTER
+ * and CALL/RET shadow stack (see PerfCounters#callStack) a fixed number of times per second,
+ * the interpreter itself does nothing more than keeping its counters.
+ * <p>
+ * Samples are attributed to source lines and labels through a {@link SourceMap}, and written as
+ * <ul>
+ * <li>a flat profile: samples per source line and per label</li>
+ * <li>folded stacks ({@code start;function;function;label count} per line), the input of
+ * flamegraph.pl, speedscope, async-profiler's converter...</li>
+ * </ul>
+ * Compiled blocks only store the PC when they exit, so with the JIT on their samples land on
+ * their exits; run with the JIT off for exact lines
+ */
+public final class GuestProfiler implements AutoCloseable {
+	private final Monitored    machine;
+	private final SourceMap    source;
+	private final PerfCounters counters;
+	private final long         interval; // ns between samples
+	private final Thread       sampler;
+	private volatile boolean   stopped = false;
+
+	// only touched by the sampler thread until it's stopped
+	private final long[] perPc = new long[65536];
+	private final Map<String, Long> folded = new HashMap<>();
+	private long samples = 0;
+
+	/** @param hz samples per second (turns the machine's counters on for the shadow stack) */
+	public GuestProfiler(Monitored machine, SourceMap source, int hz) {
+		if (hz <= 0) throw new IllegalArgumentException("The sampling rate must be positive!");
+		if (machine.getCounters() == null) machine.setCounters(true);
+		this.machine  = machine;
+		this.source   = source;
+		this.counters = machine.getCounters();
+		this.interval = 1_000_000_000L / hz;
+		this.sampler  = new Thread(this::run, "fl516-profiler");
+		this.sampler.setDaemon(true);
+	}
+
+	public GuestProfiler start() {
+		sampler.start();
+		return this;
+	}
+
+	/** stop sampling (waits for the sampler thread), the profile can be written afterwards */
+	@Override
+	public void close() {
+		stopped = true;
+		LockSupport.unpark(sampler);
+		try {
+			sampler.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long samples() {
+		return samples;
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+		while (!stopped) {
+			next += interval;
+			LockSupport.parkNanos(next - System.nanoTime());
+			if (stopped) break;
+			// a parked machine (paused, WAIT, idle loop) isn't using the CPU
+			if (!machine.isBusy()) continue;
+			sample();
+		}
+	}
+
+	// the fields are read racily, a sample may catch a CALL / RET halfway (the PC already moved on, the
+	// shadow stack not yet), these few land on the instruction after the RET or in the wrong frame
+	private void sample() {
+		int pc    = machine.getProgramCounter() & 0xFFFF;
+		int depth = Math.min(counters.callDepth, PerfCounters.MAX_FRAMES);
+		samples++;
+		perPc[pc]++;
+
+		String root = source.label(0);
+		StringBuilder stack = new StringBuilder(root);
+		for (int i = 0; i < depth; i++) stack.append(';').append(source.function(counters.callStack[i]));
+		// a local label (e.g. a loop) inside the current function
+		String function = depth == 0 ? root : source.function(counters.callStack[depth - 1]);
+		String here = source.label(pc);
+		if (!here.equals(function)) stack.append(';').append(here);
+		folded.merge(stack.toString(), 1L, Long::sum);
+	}
+
+	/** samples per source line (hottest first), then per label */
+	public void writeFlat(PrintStream out) {
+		Map<Integer, Long> perLine  = new TreeMap<>();
+		Map<String, Long>  perLabel = new HashMap<>();
+		Map<Integer, Integer> firstPc = new HashMap<>();
+		for (int pc = 0; pc < perPc.length; pc++) {
+			if (perPc[pc] == 0) continue;
+			int line = source.line(pc);
+			perLine.merge(line, perPc[pc], Long::sum);
+			perLabel.merge(source.label(pc), perPc[pc], Long::sum);
+			firstPc.putIfAbsent(line, pc);
+		}
+
+		out.printf("[CPU | PROFILE] %d samples of %s%n", samples, source.fileName);
+		out.println("| samples |      % | address | line  | label                | source");
+		List<Map.Entry<Integer, Long>> lines = new ArrayList<>(perLine.entrySet());
+		lines.sort(Map.Entry.<Integer, Long>comparingByValue().reversed());
+		for (Map.Entry<Integer, Long> line : lines) {
+			int pc = firstPc.get(line.getKey());
+			out.printf("| %7d | %6.2f | %-7s | %-5s | %-20s | %s%n", line.getValue(), percent(line.getValue()),
+				line.getKey() == 0 ? "-" : String.format("%04X", pc),
+				line.getKey() == 0 ? "-" : line.getKey(),
+				line.getKey() == 0 ? "(outside the text section)" : source.label(pc),
+				source.source(pc));
+		}
+
+		out.println("| samples |      % | label");
+		perLabel.entrySet().stream()
+			.sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+			.forEach(label -> out.printf("| %7d | %6.2f | %s%n", label.getValue(), percent(label.getValue()), label.getKey()));
+	}
+
+	private double percent(long count) {
+		return samples == 0 ? 0 : 100.0 * count / samples;
+	}
+
+	/** the folded stacks, one "frame;frame;... count" line per distinct stack */
+	public void writeFolded(Path file) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file)) {
+			List<Map.Entry<String, Long>> stacks = new ArrayList<>(folded.entrySet());
+			stacks.sort(Comparator.comparing(Map.Entry::getKey));
+			for (Map.Entry<String, Long> stack : stacks) {
+				out.write(stack.getKey() + " " + stack.getValue() + "\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package cpu.test.perf;
+
+import static cpu.test.FL516CPU.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/** the MBean of one machine, reads its counters on every call (see {@link MachineCountersMXBean}) */
+final class MachineCounters implements MachineCountersMXBean {
+	// turned off counters read as these
+	private static final PerfCounters NONE = new PerfCounters();
+
+	final Monitored machine;
+
+	MachineCounters(Monitored machine) {
+		this.machine = machine;
+	}
+
+	PerfCounters counters() {
+		PerfCounters counters = machine.getCounters();
+		return counters == null ? NONE : counters;
+	}
+
+	@Override
+	public long getInstructionsRetired() {
+		return machine.getInstructionsRetired();
+	}
+
+	@Override
+	public Map<String, Long> getOpcodeHistogram() {
+		PerfCounters counters = counters();
+		Map<String, Long> histogram = new TreeMap<>();
+		for (int opcode = 0; opcode < 256; opcode++) {
+			long count = counters.executed(opcode);
+			if (count > 0) histogram.put(String.format("%02X", opcode), count);
+		}
+		return histogram;
+	}
+
+	@Override
+	public long getBranchesTaken() {
+		return counters().branches[1];
+	}
+
+	@Override
+	public long getBranchesNotTaken() {
+		return counters().branches[0];
+	}
+
+	@Override
+	public int getCallDepth() {
+		return counters().callDepth;
+	}
+
+	@Override
+	public int getMaxCallDepth() {
+		return counters().maxCallDepth;
+	}
+
+	@Override
+	public long getStackUnderflows() {
+		return counters().stackUnderflows;
+	}
+
+	@Override
+	public long getInterrupts() {
+		return counters().interrupts;
+	}
+
+	@Override
+	public long getRamReads() {
+		return counters().reads(RAM);
+	}
+
+	@Override
+	public long getRamWrites() {
+		return counters().writes(RAM);
+	}
+
+	@Override
+	public long getVramReads() {
+		return counters().reads(VRAM);
+	}
+
+	@Override
+	public long getVramWrites() {
+		return counters().writes(VRAM);
+	}
+
+	@Override
+	public long getIoReads() {
+		return counters().reads(IO);
+	}
+
+	@Override
+	public long getIoWrites() {
+		return counters().writes(IO);
+	}
+
+	@Override
+	public void reset() {
+		PerfCounters counters = machine.getCounters();
+		if (counters != null) counters.reset();
+	}
+}
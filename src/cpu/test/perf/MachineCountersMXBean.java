@@ -0,0 +1,43 @@
+package cpu.test.perf;
+
+import java.util.Map;
+
+/**
+ * JMX view of one machine's counters (see {@link PerfMonitor#register}), e.g. under
+ * {@code cpu.test:type=Machine,name=main} in JConsole / VisualVM.
+ * Everything but the retired instructions reads 0 while the machine's counters are off
+ */
+public interface MachineCountersMXBean {
+	long getInstructionsRetired();
+
+	/** executions per opcode (hex, all memory modes), only opcodes that ran */
+	Map<String, Long> getOpcodeHistogram();
+
+	long getBranchesTaken();
+
+	long getBranchesNotTaken();
+
+	int getCallDepth();
+
+	int getMaxCallDepth();
+
+	long getStackUnderflows();
+
+	long getInterrupts();
+
+	long getRamReads();
+
+	long getRamWrites();
+
+	long getVramReads();
+
+	long getVramWrites();
+
+	/** loads and stores of the I/O bank (device registers) */
+	long getIoReads();
+
+	long getIoWrites();
+
+	/** zero the counters (the retired instructions are the machine's, they stay) */
+	void reset();
+}
@@ -0,0 +1,21 @@
+package cpu.test.perf;
+
+/**
+ * What the readers of the counters (PerfMonitor, GuestProfiler) see of a machine. cpu.test.Machine implements
+ * it, so this package (exported for JMX and JFR) doesn't hand out the machine itself
+ */
+public interface Monitored {
+	/** the performance counters, null if they are off */
+	PerfCounters getCounters();
+
+	/** turn the performance counters on (fresh ones) or off */
+	Monitored setCounters(boolean enabled);
+
+	long getInstructionsRetired();
+
+	/** the address of the instruction it's at (compiled blocks only store it when they exit) */
+	int getProgramCounter();
+
+	/** true while its thread runs guest code: not halted, paused, in a WAIT or parked in an idle loop */
+	boolean isBusy();
+}
@@ -0,0 +1,133 @@
+package cpu.test.perf;
+
+import static cpu.test.Decoder.*;
+import static cpu.test.FL516CPU.*;
+
+import java.util.Arrays;
+
+import cpu.test.Decoder;
+
+/**
+ * Hardware-style performance counters of one machine (see Machine#setCounters).
+ * <p>
+ * Only the machine's own thread writes them (interpreter and compiled blocks alike), so they are plain
+ * fields with no atomics or locks; other threads (JMX, JFR) read them racily, the numbers are exact once
+ * the machine stopped. The hot path only does one increment per instruction, in a histogram indexed by
+ * bank and opcode: memory reads / writes per bank are derived from it instead of being counted separately.
+ * An instruction counts in the bank of the memory mode (the one loads, stores and bulk memory work on),
+ * but the pixel ops, which always work on the VRAM. MEMCPYX counts in its destination bank and reads the
+ * other one, the stack is always in RAM.
+ * A fused pair counts as its two instructions
+ */
+public final class PerfCounters {
+	/** executed instructions, index = MEMORY_MODE << 8 | opcode (an unknown opcode counts once, then the machine faults) */
+	public final long[] histogram = new long[3 << 8];
+	/** conditional branches, [0] = not taken, [1] = taken */
+	public final long[] branches  = new long[2];
+
+	/** the CALL/RET shadow stack: the first callDepth call targets (at most {@value #MAX_FRAMES} are kept), see GuestProfiler */
+	public static final int MAX_FRAMES = 256;
+	public final int[] callStack = new int[MAX_FRAMES];
+
+	public int  callDepth      = 0;
+	public int  maxCallDepth   = 0;
+	public long stackUnderflows = 0;
+	/** interrupts delivered (each one pushes the PC, like a CALL) */
+	public long interrupts      = 0;
+
+	/** all counters at 0, hand it to Machine#setCounters */
+	public PerfCounters() {}
+
+	/** count one decoded instruction (or fused pair) */
+	public void count(long op, int mode) {
+		int base = mode << 8;
+		switch (Decoder.dense(op)) {
+		case OP_CMP_JCC:
+			histogram[base | CMP]++;
+			histogram[base | Decoder.opcode(op)]++; // the Jcc
+			break;
+		case OP_ADDI_JMP:
+			histogram[base | ADDI]++;
+			histogram[base | JMP]++;
+			break;
+		case OP_LDI_LMH:
+			histogram[base | LDI]++;
+			histogram[base | LMH]++;
+			break;
+		case OP_LDI_LMB:
+			histogram[base | LDI]++;
+			histogram[base | LMB]++;
+			break;
+		case OP_PSET: case OP_PGET: case OP_PFILL:
+			histogram[VRAM << 8 | Decoder.opcode(op)]++;
+			break;
+		default:
+			histogram[base | Decoder.opcode(op)]++;
+		}
+	}
+
+	public void branch(boolean taken) {
+		branches[taken ? 1 : 0]++;
+	}
+
+	public void call(int target) {
+		if (callDepth < MAX_FRAMES) callStack[callDepth] = target;
+		if (++callDepth > maxCallDepth) maxCallDepth = callDepth;
+	}
+
+	public void ret() {
+		if (callDepth > 0) callDepth--;
+	}
+
+	/** executions of an opcode, in all memory modes */
+	public long executed(int opcode) {
+		return histogram[opcode] + histogram[VRAM << 8 | opcode] + histogram[IO << 8 | opcode];
+	}
+
+	/** all counted instructions */
+	public long executed() {
+		return Arrays.stream(histogram).sum();
+	}
+
+	/** instructions reading a bank (RAM, VRAM or IO), instruction fetches are not counted */
+	public long reads(int bank) {
+		long reads = histogram[bank << 8 | LMH] + histogram[bank << 8 | LMB] + histogram[bank << 8 | MEMCPY] + histogram[bank << 8 | PGET];
+		// MEMCPYX copies from the other one of RAM and VRAM
+		if (bank == RAM)  reads += histogram[VRAM << 8 | MEMCPYX];
+		if (bank == VRAM) reads += histogram[RAM << 8 | MEMCPYX];
+		// POP, RET and IRET read the stack, unless it was empty
+		if (bank == RAM) reads += executed(POP) + executed(RET) + executed(IRET) - stackUnderflows;
+		return reads;
+	}
+
+	/** instructions writing into a bank (RAM, VRAM or IO) */
+	public long writes(int bank) {
+		long writes = histogram[bank << 8 | SMH] + histogram[bank << 8 | SMB] + histogram[bank << 8 | MEMCPY]
+			+ histogram[bank << 8 | MEMSET] + histogram[bank << 8 | PSET] + histogram[bank << 8 | PFILL];
+		if (bank != IO) writes += histogram[bank << 8 | MEMCPYX]; // it faults in IO mode
+		if (bank == RAM) writes += executed(PUSH) + executed(IPUSH) + executed(CALL) + interrupts;
+		return writes;
+	}
+
+	public void reset() {
+		Arrays.fill(histogram, 0);
+		Arrays.fill(branches, 0);
+		callDepth = maxCallDepth = 0;
+		stackUnderflows = 0;
+		interrupts = 0;
+	}
+
+	/** one line per executed opcode, then the totals */
+	public String report() {
+		StringBuilder report = new StringBuilder("[CPU | COUNTERS] opcode histogram:\n");
+		for (int opcode = 0; opcode < 256; opcode++) {
+			long count = executed(opcode);
+			if (count > 0) report.append(String.format("  %02X %12d%n", opcode, count));
+		}
+		report.append(String.format("[CPU | COUNTERS] branches taken %d, not taken %d, max call depth %d, stack underflows %d, interrupts %d%n",
+			branches[1], branches[0], maxCallDepth, stackUnderflows, interrupts));
+		report.append(String.format("[CPU | COUNTERS] RAM reads %d writes %d, VRAM reads %d writes %d, IO reads %d writes %d",
+			reads(RAM), writes(RAM), reads(VRAM), writes(VRAM), reads(IO), writes(IO)));
+		return report.toString();
+	}
+}
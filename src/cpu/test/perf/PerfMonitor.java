@@ -0,0 +1,76 @@
+package cpu.test.perf;
+
+import static cpu.test.FL516CPU.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Publishes the counters of named machines: as an MXBean ({@code cpu.test:type=Machine,name=<name>},
+ * see {@link MachineCountersMXBean}) and as a periodic JFR event ({@link CountersEvent}).
+ * Nothing is read from the machines unless someone looks (a JMX client, a running recording)
+ */
+public final class PerfMonitor {
+	private static final Map<String, MachineCounters> MACHINES = new ConcurrentHashMap<>();
+
+	static {
+		FlightRecorder.addPeriodicEvent(CountersEvent.class, PerfMonitor::emit);
+	}
+
+	private PerfMonitor() {}
+
+	/** publish this machine under name (replacing any machine of that name), turning its counters on if needed */
+	public static void register(String name, Monitored machine) {
+		if (machine.getCounters() == null) machine.setCounters(true);
+		MachineCounters bean = new MachineCounters(machine);
+		try {
+			ObjectName objectName = objectName(name);
+			var server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+			server.registerMBean(bean, objectName);
+		} catch (JMException e) {
+			throw new IllegalStateException("Could not register the counters of machine " + name, e);
+		}
+		MACHINES.put(name, bean);
+	}
+
+	/** stop publishing the machine of this name (its counters stay on) */
+	public static void unregister(String name) {
+		if (MACHINES.remove(name) == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+		} catch (JMException ignored) {}
+	}
+
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName("cpu.test:type=Machine,name=" + ObjectName.quote(name));
+	}
+
+	// the JFR periodic hook: one event per machine
+	private static void emit() {
+		MACHINES.forEach((name, bean) -> {
+			PerfCounters counters = bean.counters();
+			CountersEvent event = new CountersEvent();
+			event.machine             = name;
+			event.instructionsRetired = bean.machine.getInstructionsRetired();
+			event.branchesTaken       = counters.branches[1];
+			event.branchesNotTaken    = counters.branches[0];
+			event.maxCallDepth        = counters.maxCallDepth;
+			event.stackUnderflows     = counters.stackUnderflows;
+			event.interrupts          = counters.interrupts;
+			event.ramReads            = counters.reads(RAM);
+			event.ramWrites           = counters.writes(RAM);
+			event.vramReads           = counters.reads(VRAM);
+			event.vramWrites          = counters.writes(VRAM);
+			event.ioReads             = counters.reads(IO);
+			event.ioWrites            = counters.writes(IO);
+			event.commit();
+		});
+	}
+}
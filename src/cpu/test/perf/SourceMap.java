@@ -0,0 +1,84 @@
+package cpu.test.perf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cpu.test.assembler.ShitwareAssembler;
+import cpu.test.assembler.coms.InstructionsResolver;
+
+/**
+ * Addresses of a program back to its assembly source: the line of every instruction and the labels,
+ * taken from the tables the assembler builds ({@code InstructionsResolver.parsedLines}, in address order,
+ * and {@code labelsToAddress})
+ */
+public final class SourceMap {
+	public final String   fileName;
+	public final String[] lines;
+	/** the assembled program, to check that it's the one being profiled */
+	public final byte[]   image;
+
+	private final int[] lineOf; // per instruction slot (address / 5), 1-based source line
+	private final TreeMap<Integer, String> labels = new TreeMap<>(); // address -> label
+	private final Map<String, Integer> addresses  = new HashMap<>(); // label -> address
+
+	private SourceMap(String fileName, String[] lines) {
+		this.fileName = fileName;
+		this.lines    = lines;
+		// the assembler keeps its tables in global state
+		ShitwareAssembler.reset();
+		ShitwareAssembler.assemble(fileName, lines);
+		this.image  = ShitwareAssembler.image();
+		this.lineOf = InstructionsResolver.parsedLines.keySet().stream().mapToInt(Integer::intValue).toArray();
+		addresses.putAll(InstructionsResolver.labelsToAddress);
+		for (Map.Entry<String, Integer> label : InstructionsResolver.labelsToAddress.entrySet()) {
+			// several labels on one address: keep the first one alphabetically, so the output is stable
+			labels.merge(label.getValue(), label.getKey(), (a, b) -> a.compareTo(b) <= 0 ? a : b);
+		}
+		ShitwareAssembler.reset();
+	}
+
+	/** assemble the source (again) to get its tables, throws like the assembler on syntax errors */
+	public static SourceMap assemble(Path source) throws IOException {
+		return new SourceMap(source.getFileName().toString(), Files.readAllLines(source).toArray(new String[0]));
+	}
+
+	/** true if this source assembles into that program image */
+	public boolean matches(byte[] rom) {
+		return Arrays.equals(image, rom);
+	}
+
+	/** the source line (1-based) of the instruction at pc, 0 outside of the text section */
+	public int line(int pc) {
+		int slot = pc / 5;
+		return pc >= 0 && slot * 5 == pc && slot < lineOf.length ? lineOf[slot] : 0;
+	}
+
+	/** the source text of the instruction at pc, trimmed, "" outside of the text section */
+	public String source(int pc) {
+		int line = line(pc);
+		return line == 0 ? "" : lines[line - 1].trim();
+	}
+
+	/** the closest label at or before pc ("start" before the first one) */
+	public String label(int pc) {
+		Map.Entry<Integer, String> label = labels.floorEntry(pc);
+		return label == null ? "start" : label.getValue();
+	}
+
+	/** the address of a label (with or without its leading '.'), -1 if there's no such label */
+	public int address(String label) {
+		Integer address = addresses.get(label.startsWith(".") ? label.substring(1) : label);
+		return address == null ? -1 : address;
+	}
+
+	/** the label of a call target, its address if there's none right there */
+	public String function(int address) {
+		String label = labels.get(address);
+		return label != null ? label : String.format("0x%04X", address);
+	}
+}
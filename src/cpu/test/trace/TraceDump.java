@@ -0,0 +1,90 @@
+package cpu.test.trace;
+
+import static cpu.test.trace.TraceWriter.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Offline tool, turns a binary trace (see {@link TraceWriter}) back into the emulator's
+ * human-readable format:
+ * <pre>[CPU | PC=5] OPCODE: F1 OPERANDS: 0005, 0000</pre>
+ *
+ * usage: java cpu.test.trace.TraceDump &lt;trace file&gt; [--flags]
+ */
+public class TraceDump {
+
+	/** format one record the same way the interpreter used to print it (PC = after the fetch) */
+	public static String format(long record, boolean withFlags) {
+		int pc     = (int) (record >>> 48) & 0xFFFF;
+		int opcode = (int) (record >>> 40) & 0xFF;
+		int flags  = (int) (record >>> 32) & 0xFF;
+		int opr1   = (int) (record >>> 16) & 0xFFFF;
+		int opr2   = (int) record & 0xFFFF;
+
+		String line = "[CPU | PC=" + (pc + 5) + "] OPCODE: " + String.format("%02X", opcode)
+			+ " OPERANDS: " + String.format("%04X", opr1)
+			+ ", " + String.format("%04X", opr2);
+		if (!withFlags) return line;
+		return line + " FLAGS: "
+			+ ((flags & FLAG_ZFL)  != 0 ? "Z" : "-")
+			+ ((flags & FLAG_CFL)  != 0 ? "C" : "-")
+			+ ((flags & FLAG_OFL)  != 0 ? "O" : "-")
+			+ ((flags & FLAG_VRAM) != 0 ? " VRAM" : (flags & FLAG_IO) != 0 ? " IO" : " RAM");
+	}
+
+	/** dump every record of the trace file to the given writer, returns the number of records */
+	public static long dump(Path file, Writer out, boolean withFlags) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_BYTES * 8192);
+			buffer.limit(HEADER_BYTES);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+			buffer.flip();
+			if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+				throw new IOException("\"" + file + "\" is not an FL516 trace file!");
+			}
+			int version = buffer.getShort();
+			int recordBytes = buffer.getShort();
+			if (version != VERSION || recordBytes != RECORD_BYTES) {
+				throw new IOException("Unsupported trace version " + version + " (record size " + recordBytes + ")");
+			}
+
+			long records = 0;
+			buffer.clear();
+			while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+				buffer.flip();
+				if (buffer.remaining() < RECORD_BYTES) break; // truncated tail
+				while (buffer.remaining() >= RECORD_BYTES) {
+					out.write(format(buffer.getLong(), withFlags));
+					out.write('\n');
+					records++;
+				}
+				buffer.compact();
+			}
+			out.flush();
+			return records;
+		}
+	}
+
+	public static void main(String... args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: java cpu.test.trace.TraceDump <trace file> [--flags]");
+			System.exit(1);
+		}
+		boolean withFlags = args.length > 1 && args[1].equals("--flags");
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+		try {
+			dump(Paths.get(args[0]), out, withFlags);
+		} catch (IOException e) {
+			System.err.println("[FL516 TraceDump] " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
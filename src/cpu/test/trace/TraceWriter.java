@@ -0,0 +1,154 @@
+package cpu.test.trace;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Binary execution trace of a machine.
+ * <p>
+ * The CPU thread writes one fixed-size record per executed instruction into a preallocated
+ * ring buffer (no allocation, no formatting, no locks), a background thread drains the ring
+ * into the trace file through a {@link FileChannel}. Use {@link TraceDump} to turn the file
+ * back into the human-readable "[CPU | PC=...]" lines.
+ * <p>
+ * File layout (big-endian): header [MAGIC:4][VERSION:2][RECORD_BYTES:2], then records of
+ * 8 bytes each: [PC:2][OPCODE:1][FLAGS:1][OPERAND 1:2][OPERAND 2:2]
+ */
+public class TraceWriter implements AutoCloseable {
+	public static final int MAGIC        = 0x464C3554; // "FL5T"
+	public static final int VERSION      = 1;
+	public static final int HEADER_BYTES = 8;
+	public static final int RECORD_BYTES = Long.BYTES;
+
+	// flag bits of a record
+	public static final int FLAG_ZFL  = 1;
+	public static final int FLAG_CFL  = 1 << 1;
+	public static final int FLAG_OFL  = 1 << 2;
+	public static final int FLAG_VRAM = 1 << 3; // memory mode was VRAM
+	public static final int FLAG_IO   = 1 << 4; // memory mode was the I/O bank
+
+	// default ring size, in records (512KB)
+	public static final int DEFAULT_CAPACITY = 1 << 16;
+	// how long the drainer naps when there is nothing to drain
+	private static final long DRAIN_INTERVAL_NANOS = 1_000_000;
+
+	private final long[] ring;
+	private final int    mask;
+
+	// producer (CPU thread) side
+	private long writePos;
+	private long cachedTail;
+
+	// published positions, head = records written, tail = records drained
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	private final FileChannel channel;
+	private final ByteBuffer  chunk;
+	private final Thread      drainer;
+	private volatile boolean  closed;
+	private volatile IOException failure;
+
+	public TraceWriter(Path file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param file the trace file (truncated)
+	 * @param capacity ring size in records, rounded up to a power of two
+	 */
+	public TraceWriter(Path file, int capacity) throws IOException {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring = new long[size];
+		this.mask = size - 1;
+		this.chunk = ByteBuffer.allocateDirect(Math.min(size, 1 << 14) * RECORD_BYTES);
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		header.putInt(MAGIC).putShort((short) VERSION).putShort((short) RECORD_BYTES).flip();
+		while (header.hasRemaining()) channel.write(header);
+
+		this.drainer = new Thread(this::drainLoop, "fl516-trace-drainer");
+		this.drainer.setDaemon(true);
+		this.drainer.start();
+	}
+
+	/** pack one record, see the class doc for the layout */
+	public static long pack(int pc, int opcode, int flags, int opr1, int opr2) {
+		return ((long) (pc & 0xFFFF) << 48)
+			| ((long) (opcode & 0xFF) << 40)
+			| ((long) (flags & 0xFF) << 32)
+			| ((long) (opr1 & 0xFFFF) << 16)
+			| (opr2 & 0xFFFF);
+	}
+
+	/**
+	 * (CPU thread only) append a record, blocks only if the drainer fell a whole ring behind
+	 * @param pc the address the instruction was fetched from
+	 */
+	public void record(int pc, int opcode, int flags, int opr1, int opr2) {
+		long pos = writePos;
+		if (pos - cachedTail >= ring.length) {
+			// ring looks full, refresh our view of the drainer and wait for it if needed
+			while (pos - (cachedTail = tail.get()) >= ring.length) {
+				if (closed) return;
+				LockSupport.unpark(drainer);
+				LockSupport.parkNanos(this, 10_000);
+			}
+		}
+		ring[(int) pos & mask] = pack(pc, opcode, flags, opr1, opr2);
+		writePos = pos + 1;
+		head.lazySet(pos + 1); // publish (ordered store, no fence on the hot path)
+	}
+
+	private void drainLoop() {
+		try {
+			while (true) {
+				boolean finishing = closed; // read before head, so we never miss the last records
+				long published = head.get();
+				long drained = tail.get();
+				if (drained == published) {
+					if (finishing) break;
+					LockSupport.parkNanos(this, DRAIN_INTERVAL_NANOS);
+					continue;
+				}
+				// copy as much as fits into the staging buffer, release the slots, then write
+				int records = (int) Math.min(published - drained, chunk.capacity() / RECORD_BYTES);
+				chunk.clear();
+				for (int i = 0; i < records; i++) {
+					chunk.putLong(ring[(int) (drained + i) & mask]);
+				}
+				tail.lazySet(drained + records);
+				chunk.flip();
+				while (chunk.hasRemaining()) channel.write(chunk);
+			}
+		} catch (IOException e) {
+			failure = e;
+			closed = true;
+		}
+	}
+
+	/** number of records handed to the writer so far */
+	public long recorded() {
+		return head.get();
+	}
+
+	/** drain everything that was recorded, then close the file */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(drainer);
+		try {
+			drainer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if (failure != null) throw failure;
+	}
+}
@@ -0,0 +1,60 @@
+package cpu.test.video;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * Which {@value #LINE}-byte lines of a bank were written since someone last looked: the machine marks them
+ * as it stores into the VRAM, a presenter takes them once per frame and only converts those.
+ * <p>
+ * Lock-free: one bit per line in an atomic bitmap. Marking reads the word first and only sets the bit when
+ * it isn't set yet, so a guest drawing into the same lines over and over pays a plain load per store.
+ * {@link #take(long[])} clears the words as it reads them: a store that lands after the take marks its
+ * line again for the next frame. A store racing with the take (its line still marked) may be missed by
+ * the frame being converted, the presenter converts the lines of a frame in the next one too (see
+ * FramePresenter)
+ */
+public final class DirtyLines {
+	/** bytes per line */
+	public static final int LINE  = 64;
+	public static final int LINES = MemoryBank.SIZE / LINE;
+	/** longs in a bitmap of every line, for {@link #take(long[])} */
+	public static final int WORDS = LINES / 64;
+
+	private final AtomicLongArray bits = new AtomicLongArray(WORDS);
+
+	/** a tracker with every line dirty (nothing was presented yet) */
+	public DirtyLines() {
+		markAll();
+	}
+
+	/** mark the lines of bytes address..address + length - 1 */
+	public void mark(int address, int length) {
+		if (length <= 0) return;
+		int first = address / LINE, last = Math.min(address + length - 1, MemoryBank.SIZE - 1) / LINE;
+		for (int line = first; line <= last; line++) {
+			long bit = 1L << line;
+			if ((bits.get(line >> 6) & bit) == 0) bits.getAndAccumulate(line >> 6, bit, (word, add) -> word | add);
+		}
+	}
+
+	/** mark the whole bank, e.g. after the host wrote into it directly */
+	public void markAll() {
+		for (int i = 0; i < WORDS; i++) bits.set(i, -1L);
+	}
+
+	/**
+	 * move the dirty lines into a bitmap ({@value #WORDS} longs, bit (line % 64) of word (line / 64)) and
+	 * clear them here
+	 * @return how many lines were dirty
+	 */
+	public int take(long[] into) {
+		int count = 0;
+		for (int i = 0; i < WORDS; i++) {
+			into[i] = bits.get(i) == 0 ? 0 : bits.getAndSet(i, 0);
+			count += Long.bitCount(into[i]);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,115 @@
+package cpu.test.video;
+
+import java.util.Arrays;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * Framebuffer work on whole runs of pixels: unpacking the packed 6-bit pixels of the VRAM (see
+ * {@link PackedPixels}) through a palette into ARGB, clearing and compositing ARGB frames.
+ * <p>
+ * Backends:
+ * <ul>
+ * <li>{@link ScalarConverter}, plain loops (4 pixels per 3 bytes at a time)</li>
+ * <li>{@link VectorConverter}, SIMD lanes through the Vector API ({@code jdk.incubator.vector}), only there
+ * when the JVM runs with {@code --add-modules jdk.incubator.vector}</li>
+ * </ul>
+ * Pick one with {@code -Dfl516.converter=auto|vector|scalar}, auto (the default) takes the vector one when it
+ * is there. Both give the same results to the bit.
+ * <p>
+ * A converter keeps a scratch buffer, use one per thread
+ */
+public abstract class FrameConverter {
+	// the default palette, 2 bits per channel (0bRRGGBB) scaled to 0, 85, 170, 255, opaque
+	private static final int[] DEFAULT_PALETTE = new int[PackedPixels.COLOURS];
+
+	static {
+		for (int colour = 0; colour < PackedPixels.COLOURS; colour++) {
+			DEFAULT_PALETTE[colour] = 0xFF000000 | (colour >> 4 & 3) * 85 << 16 | (colour >> 2 & 3) * 85 << 8 | (colour & 3) * 85;
+		}
+	}
+
+	// the packed bytes of convert(), with room for a vector load past the last one
+	private byte[] scratch = new byte[0];
+
+	/** a converter of the configured backend (see above) */
+	public static FrameConverter create() {
+		String backend = System.getProperty("fl516.converter", "auto");
+		switch (backend) {
+		case "auto": {
+			FrameConverter vector = vector();
+			return vector != null ? vector : scalar();
+		}
+		case "vector": {
+			FrameConverter vector = vector();
+			if (vector == null) throw new IllegalArgumentException("The vector converter needs the JVM option --add-modules jdk.incubator.vector");
+			return vector;
+		}
+		case "scalar": return scalar();
+		default: throw new IllegalArgumentException("Unknown converter \"" + backend + "\" (auto, vector or scalar)");
+		}
+	}
+
+	public static FrameConverter scalar() {
+		return new ScalarConverter();
+	}
+
+	/** the Vector API converter, null if the module isn't there (the class is only loaded when it is) */
+	public static FrameConverter vector() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+		try {
+			return (FrameConverter) Class.forName("cpu.test.video.VectorConverter").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/** a copy of the default palette: colour 0bRRGGBB -> opaque ARGB, each channel 0, 85, 170 or 255 */
+	public static int[] defaultPalette() {
+		return DEFAULT_PALETTE.clone();
+	}
+
+	/** "scalar" or "vector (n lanes)" */
+	public abstract String name();
+
+	/**
+	 * unpack count packed pixels, mapped through a palette of 64 ARGB values, into out
+	 * @param offset where the pixels start in packed, on a 4-pixel (3-byte) boundary
+	 */
+	public abstract void unpack(byte[] packed, int offset, int count, int[] palette, int[] out, int outOffset);
+
+	/** set the pixels from..to - 1 of a frame to argb (Arrays.fill, which HotSpot already turns into vector stores) */
+	public void fill(int[] frame, int from, int to, int argb) {
+		Arrays.fill(frame, from, to, argb);
+	}
+
+	/**
+	 * composite count pixels of src over dst (source-over, with the alpha of each src pixel), into dst. Every
+	 * channel is {@code (s * a + d * (255 - a)) / 255} rounded, the alpha too
+	 */
+	public abstract void over(int[] src, int srcOffset, int[] dst, int dstOffset, int count);
+
+	/**
+	 * convert count pixels of a bank from pixel index on (the bank read as packed pixels) into out, the pixels
+	 * stop at the last one
+	 */
+	public void convert(MemoryBank bank, int index, int count, int[] palette, int[] out, int outOffset) {
+		count = Math.min(count, PackedPixels.PIXELS - index);
+		// the pixels before the first 4-pixel boundary one by one
+		int head = Math.min(count, -index & 3);
+		for (int i = 0; i < head; i++) out[outOffset + i] = palette[PackedPixels.get(bank, index + i)];
+		index += head;
+		outOffset += head;
+		count -= head;
+		if (count == 0) return;
+		int length = PackedPixels.length(index, count);
+		if (scratch.length < length + 64) scratch = new byte[length + 64];
+		bank.read(PackedPixels.address(index), scratch, 0, length);
+		unpack(scratch, 0, count, palette, out, outOffset);
+	}
+
+	// the exact / 255 of the blends, for t up to 255 * 255 + 128
+	static int div255(int t) {
+		return t + (t >> 8) >> 8;
+	}
+}
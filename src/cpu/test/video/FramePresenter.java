@@ -0,0 +1,206 @@
+package cpu.test.video;
+
+import static cpu.test.FL516CPU.VRAM;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+import cpu.test.Machine;
+import cpu.test.memory.MemoryBank;
+
+/**
+ * Shows the screen of a machine (the packed pixels of its VRAM, see {@link PackedPixels}) as ARGB frames
+ * at a fixed rate, on a daemon thread of its own: no display needed, the frames go to a {@link Sink}
+ * (a PNG sequence, raw frames for a video encoder...).
+ * <p>
+ * The machine tracks the 64-byte VRAM lines it writes (see Machine#trackVram), each frame only the pixels
+ * of dirty lines are converted (runs of them at once, by a {@link FrameConverter}), a still screen costs
+ * nothing but the check. There are two frame buffers:
+ * the presenter draws into the back one while the front one (the last frame) stays as it is for
+ * {@link #frame()}, then they swap. The back buffer is a frame behind, so the lines of the previous frame
+ * are drawn again too. Nothing is locked between the machine and the presenter, the machine may be halfway
+ * through a drawing when a frame is taken (frames are not synchronized with the guest)
+ */
+public final class FramePresenter implements AutoCloseable {
+	/** receives the frames, on the presenter's thread */
+	@FunctionalInterface
+	public interface Sink {
+		/**
+		 * @param argb {@link PackedPixels#WIDTH} x {@link PackedPixels#HEIGHT} pixels row after row, only valid
+		 * during the call
+		 * @param number frames since the start, one per tick of the frame rate (unchanged ones included)
+		 */
+		void frame(int[] argb, long number) throws IOException;
+	}
+
+	private static final int PIXELS = PackedPixels.WIDTH * PackedPixels.HEIGHT;
+	private static final int[] ARGB = FrameConverter.defaultPalette();
+
+	private final Machine    machine;
+	private final DirtyLines dirty;
+	private final Sink       sink;
+	private final long       interval; // ns between frames
+	private final Thread     presenter;
+	private final FrameConverter converter = FrameConverter.create();
+	private volatile boolean stopped = false;
+
+	// double buffer, only drawn by the presenter thread
+	private int[] back = new int[PIXELS];
+	private volatile int[] front = new int[PIXELS];
+	private final long[] taken    = new long[DirtyLines.WORDS];
+	private final long[] previous = new long[DirtyLines.WORDS]; // not drawn into the back buffer yet
+	private volatile long frames = 0;
+	private volatile long linesDrawn = 0;
+	private volatile IOException failure = null;
+
+	/** @param fps frames per second (turns the machine's VRAM tracking on) */
+	public FramePresenter(Machine machine, int fps, Sink sink) {
+		if (fps <= 0) throw new IllegalArgumentException("The frame rate must be positive!");
+		this.machine   = machine;
+		this.dirty     = machine.trackVram();
+		this.dirty.markAll(); // the first frame draws everything
+		this.sink      = sink;
+		this.interval  = 1_000_000_000L / fps;
+		this.presenter = new Thread(this::run, "fl516-presenter");
+		this.presenter.setDaemon(true);
+	}
+
+	public FramePresenter start() {
+		presenter.start();
+		return this;
+	}
+
+	/** stop presenting (waits for the presenter thread), then present the last frame */
+	@Override
+	public void close() {
+		stopped = true;
+		LockSupport.unpark(presenter);
+		try {
+			presenter.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		present();
+	}
+
+	/** the last frame (ARGB, row after row), valid until the one after it is presented: copy it to keep it */
+	public int[] frame() {
+		return front;
+	}
+
+	/** frames presented so far */
+	public long frames() {
+		return frames;
+	}
+
+	/** VRAM lines converted so far (there are {@value DirtyLines#LINES}, the screen is the first 675) */
+	public long linesDrawn() {
+		return linesDrawn;
+	}
+
+	/** why the sink stopped taking frames, null if it didn't (presenting goes on without it) */
+	public IOException failure() {
+		return failure;
+	}
+
+	private void run() {
+		long next = System.nanoTime();
+		while (!stopped) {
+			// a slow sink skips frames rather than bursting to catch up
+			next = Math.max(next + interval, System.nanoTime());
+			LockSupport.parkNanos(next - System.nanoTime());
+			if (stopped) break;
+			present();
+		}
+	}
+
+	private void present() {
+		// nothing changed: the front buffer is still the screen
+		if (dirty.take(taken) != 0) {
+			MemoryBank vram = machine.MEMORY[VRAM]; // a restored snapshot brings another bank
+			long drawn = 0;
+			int run = -1; // first line of the run of dirty lines being gathered
+			for (int line = 0; line < DirtyLines.LINES; line++) {
+				int word = line >> 6;
+				if ((line & 63) == 0 && (taken[word] | previous[word]) == 0) {
+					// 64 clean lines
+					if (run >= 0) drawn += draw(vram, run, line);
+					run = -1;
+					line += 63;
+					continue;
+				}
+				boolean dirtyLine = ((taken[word] | previous[word]) >>> line & 1) != 0;
+				if (dirtyLine && run < 0) run = line;
+				if (!dirtyLine && run >= 0) {
+					drawn += draw(vram, run, line);
+					run = -1;
+				}
+			}
+			if (run >= 0) drawn += draw(vram, run, DirtyLines.LINES);
+			System.arraycopy(taken, 0, previous, 0, DirtyLines.WORDS);
+			linesDrawn += drawn;
+			int[] shown = back;
+			back  = front;
+			front = shown;
+		}
+		long number = frames;
+		if (failure == null) {
+			try {
+				sink.frame(front, number);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		frames = number + 1;
+	}
+
+	// convert the pixels touching lines from..to - 1 into the back buffer, returns how many were on the screen
+	private int draw(MemoryBank vram, int from, int to) {
+		int start = from * DirtyLines.LINE;
+		if (start >= PackedPixels.SCREEN_BYTES) return 0;
+		int end = Math.min(to * DirtyLines.LINE, PackedPixels.SCREEN_BYTES);
+		// pixel p takes bits 6p..6p+5: the first one with a bit in the lines, up to the last one
+		int first = start * 4 / 3, last = Math.min((end * 4 + 2) / 3, PIXELS);
+		converter.convert(vram, first, last - first, ARGB, back, first);
+		return (end - start + DirtyLines.LINE - 1) / DirtyLines.LINE;
+	}
+
+	/** the ARGB value of a 6-bit colour */
+	public static int argb(int colour) {
+		return ARGB[colour & 0x3F];
+	}
+
+	/**
+	 * a sink writing each frame as {@code frame-000000.png} into a directory (created if needed). The images
+	 * are made without AWT's toolkit, no display is needed
+	 */
+	public static Sink png(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		BufferedImage image = new BufferedImage(PackedPixels.WIDTH, PackedPixels.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		return (argb, number) -> {
+			image.setRGB(0, 0, PackedPixels.WIDTH, PackedPixels.HEIGHT, argb, 0, PackedPixels.WIDTH);
+			Path file = directory.resolve(String.format("frame-%06d.png", number));
+			if (!ImageIO.write(image, "png", file.toFile())) throw new IOException("No PNG writer for " + file);
+		};
+	}
+
+	/**
+	 * a sink writing the frames back to back into a channel, each one WIDTH x HEIGHT big-endian ARGB ints
+	 * (e.g. {@code ffmpeg -f rawvideo -pix_fmt argb -s 240x240 -r <fps> -i frames.raw})
+	 */
+	public static Sink raw(WritableByteChannel channel) {
+		ByteBuffer buffer = ByteBuffer.allocate(PIXELS * 4);
+		return (argb, number) -> {
+			buffer.clear();
+			buffer.asIntBuffer().put(argb);
+			while (buffer.hasRemaining()) channel.write(buffer);
+		};
+	}
+}
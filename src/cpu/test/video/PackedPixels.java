@@ -0,0 +1,89 @@
+package cpu.test.video;
+
+import cpu.test.memory.MemoryBank;
+
+/**
+ * The pixel format of the VRAM: 6-bit colours (2 bits per channel, {@code 0bRRGGBB}) packed back to back,
+ * pixel i is bits 6i..6i+5 of the bank read as one big-endian bit stream, so 4 pixels take 3 bytes:
+ * <pre>
+ * byte  0        1        2
+ *       aaaaaabb bbbbcccc ccdddddd   (a = pixel 0, b = pixel 1 ...)
+ * </pre>
+ * Pixels are numbered row after row, pixel (x, y) of the screen is {@code y * WIDTH + x}. The screen is the
+ * first {@value #SCREEN_BYTES} bytes of the VRAM, indices go on past it (16-bit, up to 0xFFFF) for
+ * off-screen buffers.
+ * <p>
+ * Used by the PSET / PGET / PFILL instructions and by whatever shows the VRAM on the host side
+ */
+public final class PackedPixels {
+	public static final int WIDTH  = 240;
+	public static final int HEIGHT = 240;
+	public static final int COLOURS = 64;
+	/** pixel indices go from 0 to PIXELS - 1 */
+	public static final int PIXELS = 0xFFFF + 1;
+	public static final int SCREEN_BYTES = WIDTH * HEIGHT * 6 / 8;
+
+	// the 3 bytes of 4 pixels of each colour, repeated: what a span fill writes between its ends
+	private static final int GROUPS = 256;
+	private static final byte[][] RUNS = new byte[COLOURS][GROUPS * 3];
+
+	static {
+		for (int colour = 0; colour < COLOURS; colour++) {
+			int bits = colour << 18 | colour << 12 | colour << 6 | colour;
+			for (int i = 0; i < GROUPS * 3; i += 3) {
+				RUNS[colour][i]     = (byte) (bits >> 16);
+				RUNS[colour][i + 1] = (byte) (bits >> 8);
+				RUNS[colour][i + 2] = (byte) bits;
+			}
+		}
+	}
+
+	private PackedPixels() {}
+
+	/** the first byte holding pixel index */
+	public static int address(int index) {
+		return index * 3 >> 2;
+	}
+
+	/** how many bytes pixels index..index + count - 1 touch */
+	public static int length(int index, int count) {
+		return count == 0 ? 0 : ((index + count) * 6 + 7 >> 3) - address(index);
+	}
+
+	/** the colour of pixel index */
+	public static int get(MemoryBank bank, int index) {
+		int shift = 10 - (index * 6 & 7);
+		return bank.getHalf(address(index)) >> shift & 0x3F;
+	}
+
+	/** set pixel index to the low 6 bits of colour, its neighbours are untouched */
+	public static void set(MemoryBank bank, int index, int colour) {
+		// the pixel is in the top 6 bits of this half-word, or across both of its bytes
+		int address = address(index);
+		int shift = 10 - (index * 6 & 7);
+		bank.setHalf(address, bank.getHalf(address) & ~(0x3F << shift) | (colour & 0x3F) << shift);
+	}
+
+	/**
+	 * set count pixels from index on to the low 6 bits of colour (a span: the rest of a row goes on at the
+	 * start of the next one), it stops at the last pixel
+	 * @return the number of pixels set
+	 */
+	public static int fill(MemoryBank bank, int index, int count, int colour) {
+		count = Math.min(count, PIXELS - index);
+		colour &= 0x3F;
+		int end = index + count;
+		// up to 3 pixels at each end share their bytes with pixels outside the span
+		int first = Math.min(end, index + 3 & ~3), last = Math.max(first, end & ~3);
+		for (int i = index; i < first; i++) set(bank, i, colour);
+		int bytes = address(last) - address(first);
+		byte[] run = RUNS[colour];
+		if (run[0] == run[1] && run[1] == run[2]) {
+			bank.fill(address(first), bytes, run[0]);
+		} else {
+			for (int done = 0; done < bytes; done += run.length) bank.write(address(first) + done, run, 0, Math.min(run.length, bytes - done));
+		}
+		for (int i = last; i < end; i++) set(bank, i, colour);
+		return count;
+	}
+}
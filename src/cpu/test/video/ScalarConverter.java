@@ -0,0 +1,48 @@
+package cpu.test.video;
+
+/** The plain-loop frame converter, see {@link FrameConverter} */
+final class ScalarConverter extends FrameConverter {
+	@Override
+	public String name() {
+		return "scalar";
+	}
+
+	@Override
+	public void unpack(byte[] packed, int offset, int count, int[] palette, int[] out, int outOffset) {
+		unpackScalar(packed, offset, count, palette, out, outOffset);
+	}
+
+	// 4 pixels per 3 bytes, shared with the tails of the vector converter
+	static void unpackScalar(byte[] packed, int offset, int count, int[] palette, int[] out, int outOffset) {
+		int i = 0, b = offset;
+		for (; i + 4 <= count; i += 4, b += 3) {
+			int bits = (packed[b] & 0xFF) << 16 | (packed[b + 1] & 0xFF) << 8 | packed[b + 2] & 0xFF;
+			out[outOffset + i]     = palette[bits >> 18];
+			out[outOffset + i + 1] = palette[bits >> 12 & 0x3F];
+			out[outOffset + i + 2] = palette[bits >> 6 & 0x3F];
+			out[outOffset + i + 3] = palette[bits & 0x3F];
+		}
+		if (i == count) return;
+		// 1 to 3 pixels left, in the last bytes of the array maybe
+		int bits = (packed[b] & 0xFF) << 16;
+		if (count - i > 1) bits |= (packed[b + 1] & 0xFF) << 8;
+		if (count - i > 2) bits |= packed[b + 2] & 0xFF;
+		for (int shift = 18; i < count; i++, shift -= 6) out[outOffset + i] = palette[bits >> shift & 0x3F];
+	}
+
+	@Override
+	public void over(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+		overScalar(src, srcOffset, dst, dstOffset, count);
+	}
+
+	static void overScalar(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+		for (int i = 0; i < count; i++) {
+			int s = src[srcOffset + i], d = dst[dstOffset + i];
+			int a = s >>> 24, rest = 255 - a;
+			dst[dstOffset + i] = div255(a * 255 + (d >>> 24) * rest + 128) << 24
+				| div255((s >> 16 & 0xFF) * a + (d >> 16 & 0xFF) * rest + 128) << 16
+				| div255((s >> 8 & 0xFF) * a + (d >> 8 & 0xFF) * rest + 128) << 8
+				| div255((s & 0xFF) * a + (d & 0xFF) * rest + 128);
+		}
+	}
+}
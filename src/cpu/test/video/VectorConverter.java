@@ -0,0 +1,94 @@
+package cpu.test.video;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Vector API frame converter, see {@link FrameConverter}: one pixel per int lane of the widest vectors
+ * the CPU has (at least 4 lanes). Only loaded when {@code jdk.incubator.vector} is there.
+ * <p>
+ * Unpacking takes the bytes of a run of pixels as one byte vector of the same size, a shuffle puts the two
+ * bytes holding each pixel (its big-endian half-word) into the low half of its int lane, then a shift per
+ * lane (10, 4, 6, 8, the same 4 over and over) and a mask leave its colour, looked up in the palette with a
+ * gather. Tails (and ends where a whole vector can't be loaded) go through the scalar loops
+ */
+final class VectorConverter extends FrameConverter {
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED.length() >= 4
+		? IntVector.SPECIES_PREFERRED : IntVector.SPECIES_128;
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, INTS.vectorShape());
+	private static final int LANES = INTS.length();
+
+	// byte lane 4i + k (pixel i of the run, byte k of its lane, little-endian) <- byte of the run:
+	// the low byte of the pixel's half-word for k = 0, its high byte otherwise (k = 2, 3 are shifted out)
+	private static final VectorShuffle<Byte> HALVES;
+	private static final IntVector SHIFTS;
+
+	static {
+		int[] firstByte = { 0, 0, 1, 2 }, shifts = { 10, 4, 6, 8 };
+		int[] halves = new int[BYTES.length()];
+		int[] lanes  = new int[LANES];
+		for (int lane = 0; lane < BYTES.length(); lane++) {
+			int pixel = lane >> 2;
+			int high = pixel / 4 * 3 + firstByte[pixel & 3];
+			halves[lane] = (lane & 3) == 0 ? high + 1 : high;
+		}
+		for (int pixel = 0; pixel < LANES; pixel++) lanes[pixel] = shifts[pixel & 3];
+		HALVES = VectorShuffle.fromArray(BYTES, halves, 0);
+		SHIFTS = IntVector.fromArray(INTS, lanes, 0);
+	}
+
+	private final int[] colours = new int[LANES]; // gather indices
+
+	@Override
+	public String name() {
+		return "vector (" + LANES + " lanes)";
+	}
+
+	@Override
+	public void unpack(byte[] packed, int offset, int count, int[] palette, int[] out, int outOffset) {
+		int i = 0, b = offset;
+		// LANES pixels take LANES * 3 / 4 bytes, 3 / 16 of the 4 * LANES byte vector the load reads,
+		// hence the whole-vector check against packed (and the 64 bytes of padding on convert's scratch)
+		for (; i + LANES <= count && b + BYTES.length() <= packed.length; i += LANES, b += LANES / 4 * 3) {
+			ByteVector.fromArray(BYTES, packed, b).rearrange(HALVES).reinterpretAsInts()
+				.lanewise(VectorOperators.LSHR, SHIFTS).and(0x3F)
+				.intoArray(colours, 0);
+			IntVector.fromArray(INTS, palette, 0, colours, 0).intoArray(out, outOffset + i);
+		}
+		ScalarConverter.unpackScalar(packed, b, count - i, palette, out, outOffset + i);
+	}
+
+	@Override
+	public void over(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+		int i = 0;
+		for (; i + LANES <= count; i += LANES) {
+			IntVector s = IntVector.fromArray(INTS, src, srcOffset + i);
+			IntVector d = IntVector.fromArray(INTS, dst, dstOffset + i);
+			IntVector a = s.lanewise(VectorOperators.LSHR, 24);
+			IntVector rest = a.neg().add(255);
+			IntVector alpha = blend(a.mul(255), d.lanewise(VectorOperators.LSHR, 24), rest);
+			IntVector red   = blend(channel(s, 16).mul(a), channel(d, 16), rest);
+			IntVector green = blend(channel(s, 8).mul(a), channel(d, 8), rest);
+			IntVector blue  = blend(s.and(0xFF).mul(a), d.and(0xFF), rest);
+			alpha.lanewise(VectorOperators.LSHL, 24)
+				.or(red.lanewise(VectorOperators.LSHL, 16))
+				.or(green.lanewise(VectorOperators.LSHL, 8))
+				.or(blue)
+				.intoArray(dst, dstOffset + i);
+		}
+		ScalarConverter.overScalar(src, srcOffset + i, dst, dstOffset + i, count - i);
+	}
+
+	private static IntVector channel(IntVector argb, int shift) {
+		return argb.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+	}
+
+	// div255(source * a + d * rest + 128), like the scalar one
+	private static IntVector blend(IntVector source, IntVector d, IntVector rest) {
+		IntVector t = source.add(d.mul(rest)).add(128);
+		return t.add(t.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+	}
+}
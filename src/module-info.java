@@ -6,4 +6,13 @@
  *
  */
 module CPUTest {
-}
\ No newline at end of file
+	requires java.management;
+	requires jdk.jfr;
+	// ImageIO, for the PNG frames of the presenter (see cpu.test.video.FramePresenter)
+	requires java.desktop;
+	// SIMD frame conversion, used when the JVM runs with --add-modules jdk.incubator.vector (see cpu.test.video.FrameConverter)
+	requires static jdk.incubator.vector;
+	
+	// the counters' MXBean and JFR event (see PerfMonitor)
+	exports cpu.test.perf;
+}